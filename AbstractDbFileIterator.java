@@ -28,6 +28,16 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         next = null;
     }
 
+    /** Returns the tuple a call to hasNext() read ahead, if it has not been
+    returned by next() yet, and forgets it; subclasses that hand out tuples by
+    other means use it so that the tuple is not skipped.
+    @return the tuple read ahead, or null if there is none */
+    protected Tuple takeReadAhead() {
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
     /** Reads the next tuple from the underlying source.
     @return the next Tuple in the iterator, null if the iteration is finished. */
     protected abstract Tuple readNext() throws DbException, TransactionAbortedException;
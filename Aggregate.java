@@ -1,20 +1,84 @@
 package simpledb;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Several aggregates, each over its own column, can be computed in one
+ * pass, but they are all grouped by the same single column; they are computed
+ * by a {@link MultiAggregator}.
+ * <p>
+ * At most {@link #MAX_GROUPS} groups are kept in memory (see
+ * {@link #setMaxGroupsInMemory}). Once the aggregator holds that many, tuples
+ * of groups it already has are still merged into it, but tuples of new groups
+ * are written to NUM_PARTITIONS spill files by the hash of their group value,
+ * keeping only the group-by and aggregate fields. The groups in memory are
+ * returned first, and then each spill file is aggregated in turn the same
+ * way, splitting it again on the next bits of the hash if it is still too
+ * large.
+ * <p>
+ * When the child is a scan of a HeapFile, possibly below Filters, the
+ * aggregate runs on several worker threads (see {@link #setParallelism}).
+ * Each worker repeatedly claims the next {@link #MORSEL_PAGES} pages of the
+ * file, reads them through the buffer pool and merges the tuples that pass
+ * the Filters into its own partial {@link MultiAggregator}. The partial
+ * aggregates are then merged into one; AVG is merged as a sum and a count.
+ * The budget of groups covers all the partial aggregates together, as they
+ * are all in memory until merged: once the workers hold more groups between
+ * them than allowed, or the merged aggregate has more, the parallel attempt
+ * is given up and the aggregate reads the child serially and spills as
+ * described above.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator tupleIter;
-    private int aField;
+    private int[] aFields;
     private int gbField;
-    private Aggregator.Op op;
+    private Aggregator.Op[] ops;
     private OpIterator aggregateIter;
     private Aggregator aggregator;
+    private Type groupByType;
+    private Type[] aggregateTypes;
+    private transient TupleBatch out;
+
+    /**
+     * Default number of groups kept in memory at once. When there are more,
+     * the aggregate spills the tuples of the other groups to disk.
+     */
+    public final static int MAX_GROUPS = 20000;
+
+    /** Number of partitions a spilling aggregate splits its input into. */
+    final static int PARTITION_BITS = 4;
+    final static int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    private int maxGroups = MAX_GROUPS;
+
+    /** Number of consecutive pages a worker of a parallel aggregate claims at once. */
+    public final static int MORSEL_PAGES = 16;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** A spill file of (group-by, aggregate) tuples not aggregated yet. */
+    private static class Partition {
+      final SpillFile file;
+      final int depth; // how many times its tuples have been partitioned
+      Partition(SpillFile file, int depth) {
+        this.file = file;
+        this.depth = depth;
+      }
+    }
+
+    // state of the pass over the child or over a partition
+    private transient int passGbField, passDepth;
+    private transient int[] passAFields;
+    private transient SpillFile[] parts; // non-null once the pass spills
+    private transient Tuple spillTuple;
+    private transient TupleDesc spillTd;
+    private transient int[] spillAFields; // the aggregate fields of spilled tuples
+    private transient boolean spilled; // some pass over the child spilled
+    private transient LinkedList<Partition> pending = new LinkedList<Partition>();
 
     /**
      * Constructor.
@@ -35,33 +99,82 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+      this(child, new int[] {afield}, gfield, new Aggregator.Op[] {aop});
+    }
+
+    /**
+     * Constructor for an Aggregate that computes several aggregates at once.
+     * The output tuples hold the group by field, if any, followed by one
+     * field per aggregate, in the order given here.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The column over which each aggregate is computed.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+      if (afields.length == 0 || afields.length != aops.length)
+        throw new IllegalArgumentException("one field per aggregate expected");
       // assign values to attributes
       tupleIter = child;
-    	aField = afield;
+    	aFields = afields;
     	gbField = gfield;
-    	op = aop;
+    	ops = aops;
     	aggregateIter = null;
 
-    	Type groupByType;
     	if (gbField == Aggregator.NO_GROUPING) // no grouping, so no groupByType either
     		groupByType = null;
     	else // yes grouping, so give it a groupBy type
     		groupByType = tupleIter.getTupleDesc().getFieldType(gbField);
-    	Type aggregateType = tupleIter.getTupleDesc().getFieldType(aField);
+    	aggregateTypes = new Type[aFields.length];
+    	for (int j = 0; j < aFields.length; j++)
+    		aggregateTypes[j] = tupleIter.getTupleDesc().getFieldType(aFields[j]);
 
       // create an aggregator based on the type
-    	switch(aggregateType){
+    	aggregator = newAggregator(gbField, aFields);
+    }
+
+    /**
+     * @return an empty aggregator for tuples with the child's group-by and
+     *         aggregate types at the given fields
+     */
+    private Aggregator newAggregator(int gfield, int[] afields) {
+      if (afields.length > 1)
+        return new MultiAggregator(gfield, groupByType, afields, aggregateTypes, ops);
+    	switch(aggregateTypes[0]){
     		case INT_TYPE:
-    			aggregator = new IntegerAggregator(gbField, groupByType, aField, op);
-    			break;
+    			return new IntegerAggregator(gfield, groupByType, afields[0], ops[0]);
     		case STRING_TYPE:
-    			aggregator = new StringAggregator(gbField, groupByType, aField, op);
-    			break;
-        default: // illegal aggregateType if not int or string
+    			return new StringAggregator(gfield, groupByType, afields[0], ops[0]);
+    		case LONG_TYPE: case DOUBLE_TYPE:
+    			return new NumericAggregator(gfield, groupByType, afields[0], aggregateTypes[0], ops[0]);
+        default: // illegal aggregateType
           throw new IllegalArgumentException();
     	}
     }
 
+    /**
+     * Sets how many groups this aggregate may hold in memory. Takes effect
+     * when the aggregate is next opened.
+     */
+    public void setMaxGroupsInMemory(int maxGroups) {
+      this.maxGroups = maxGroups;
+    }
+
+    /**
+     * Sets the number of worker threads a parallel aggregate may use; 1
+     * turns parallel aggregation off. Takes effect when the aggregate is
+     * next opened.
+     */
+    public void setParallelism(int workers) {
+      this.parallelism = workers;
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
@@ -84,45 +197,337 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * @return the aggregate field
+     * @return the number of aggregates computed
+     * */
+    public int numAggregates() {
+      return aFields.length;
+    }
+
+    /**
+     * @return the aggregate field (of the first aggregate)
      * */
     public int aggregateField() {
-      return aField;
+      return aggregateField(0);
+    }
+
+    /**
+     * @return the field of the j-th aggregate
+     * */
+    public int aggregateField(int j) {
+      return aFields[j];
     }
 
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     *         tuples (of the first aggregate)
      * */
     public String aggregateFieldName() {
-      return tupleIter.getTupleDesc().getFieldName(aggregateField());
+      return aggregateFieldName(0);
+    }
+
+    /**
+     * @return the name of the field of the j-th aggregate
+     * */
+    public String aggregateFieldName(int j) {
+      return tupleIter.getTupleDesc().getFieldName(aggregateField(j));
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator (of the first aggregate)
      * */
     public Aggregator.Op aggregateOp() {
-	     return op;
+	     return aggregateOp(0);
+    }
+
+    /**
+     * @return the operator of the j-th aggregate
+     * */
+    public Aggregator.Op aggregateOp(int j) {
+      return ops[j];
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	     return aop.toString();
     }
 
+    /**
+     * @return the type of the values aop computes over a field of type
+     *         fieldType: COUNT is an INT, SUM of INTs is a LONG so that it
+     *         does not overflow, and the others keep the type of their field
+     */
+    public static Type resultType(Aggregator.Op aop, Type fieldType) {
+      if (aop == Aggregator.Op.COUNT)
+        return Type.INT_TYPE;
+      if (aop == Aggregator.Op.SUM && fieldType == Type.INT_TYPE)
+        return Type.LONG_TYPE;
+      return fieldType;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
         // exceptions are thrown in these respective functions like .open(), .hasNext()
         super.open(); // Operator.open();
       	tupleIter.open();
+      	if (!aggregateInParallel())
+      	  aggregateChild();
+    }
+
+    /**
+     * @return the scan below the child if the child is a SeqScan of a
+     *         HeapFile with only Filters above it, and null otherwise
+     */
+    private static SeqScan heapScan(OpIterator it) {
+      while (it instanceof Filter)
+        it = ((Filter) it).getChildren()[0];
+      if (!(it instanceof SeqScan))
+        return null;
+      DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+      return f instanceof HeapFile ? (SeqScan) it : null;
+    }
+
+    /**
+     * Aggregates the child on worker threads, as described above, and opens
+     * aggregateIter over the merged result.
+     *
+     * @return false, without aggregating anything, if the child cannot be
+     *         split between workers, or if the groups did not fit in memory
+     */
+    private boolean aggregateInParallel() throws DbException, TransactionAbortedException {
+      SeqScan scan = heapScan(tupleIter);
+      if (parallelism < 2 || scan == null)
+        return false;
+      for (Aggregator.Op aop : ops) {
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+          return false;
+      }
+      final HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+      final TransactionId tid = scan.getTransactionId();
+      int workers = Math.min(parallelism, hf.numPages() / MORSEL_PAGES);
+      if (workers < 2) // not worth starting threads for
+        return false;
+
+      final ArrayList<Predicate> filters = new ArrayList<Predicate>();
+      for (OpIterator it = tupleIter; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+        filters.add(((Filter) it).getPredicate());
+      final AtomicInteger nextMorsel = new AtomicInteger();
+      final AtomicInteger groupsHeld = new AtomicInteger(); // by all the partials
+      final AtomicBoolean overflow = new AtomicBoolean();
+
+      ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "aggregate-worker");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      ArrayList<Future<MultiAggregator>> partials = new ArrayList<Future<MultiAggregator>>();
+      for (int w = 0; w < workers; w++) {
+        partials.add(pool.submit(new Callable<MultiAggregator>() {
+          public MultiAggregator call() throws Exception {
+            return aggregateMorsels(hf, tid, filters, nextMorsel, groupsHeld, overflow);
+          }
+        }));
+      }
+      // the open scan of tupleIter keeps a vacuum off hf until we are done
+      MultiAggregator merged = null;
+      try {
+        for (int w = 0; w < workers && !overflow.get(); w++) {
+          MultiAggregator partial = partials.get(w).get();
+          partials.set(w, null); // let the partial go once merged
+          if (merged == null)
+            merged = partial;
+          else
+            merged.merge(partial);
+          if (merged.numGroups() > maxGroups)
+            overflow.set(true);
+        }
+      } catch (InterruptedException e) {
+        throw new DbException("interrupted while aggregating");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof TransactionAbortedException)
+          throw (TransactionAbortedException) e.getCause();
+        if (e.getCause() instanceof DbException)
+          throw (DbException) e.getCause();
+        throw new DbException("aggregate worker failed: " + e.getCause());
+      } finally {
+        pool.shutdownNow();
+      }
+      if (overflow.get())
+        return false;
 
-        // now get all the tuples and aggregate them
-      	while (tupleIter.hasNext()){
-      		aggregator.mergeTupleIntoGroup(tupleIter.next());
-      	}
+      spilled = false;
+      aggregator = merged;
+      aggregateIter = aggregator.iterator();
+      aggregateIter.open();
+      return true;
+    }
 
-        // and open aggregateIter to be able to go through the filled data
-      	aggregateIter = aggregator.iterator();
-      	aggregateIter.open();
+    /**
+     * Body of a worker of a parallel aggregate: aggregates morsels of pages
+     * of hf until there are none left, or until the workers hold too many
+     * groups between them. groupsHeld counts the groups of all the workers.
+     *
+     * @return the partial aggregate of the morsels this worker read
+     */
+    private MultiAggregator aggregateMorsels(HeapFile hf, TransactionId tid,
+        List<Predicate> filters, AtomicInteger nextMorsel, AtomicInteger groupsHeld,
+        AtomicBoolean overflow) throws DbException, TransactionAbortedException {
+      MultiAggregator partial = new MultiAggregator(gbField, groupByType, aFields,
+          aggregateTypes, ops);
+      int counted = 0; // groups of partial already added to groupsHeld
+      int numPages = hf.numPages();
+      int start;
+      while (!overflow.get()
+          && (start = nextMorsel.getAndIncrement() * MORSEL_PAGES) < numPages) {
+        for (int p = start; p < Math.min(start + MORSEL_PAGES, numPages); p++) {
+          HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+              new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+          Iterator<Tuple> it = page.iterator();
+          next: while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int k = 0; k < filters.size(); k++) {
+              if (!filters.get(k).filter(t))
+                continue next;
+            }
+            partial.mergeTupleIntoGroup(t);
+          }
+        }
+        if (groupsHeld.addAndGet(partial.numGroups() - counted) > maxGroups)
+          overflow.set(true);
+        counted = partial.numGroups();
+      }
+      return partial;
+    }
+
+    /**
+     * Aggregates all the tuples of the child, spilling the groups that do
+     * not fit, and opens aggregateIter over the groups kept in memory.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+      spilled = false;
+      startPass(gbField, aFields, 0);
+
+      // now get all the tuples and aggregate them, a batch at a time
+      BatchOpIterator batches = BatchAdapter.of(tupleIter);
+      TupleBatch b;
+      while ((b = batches.nextBatch()) != null){
+        for (int k = 0; k < b.numSelected(); k++)
+          add(b.get(k));
+      }
+      spilled = parts != null;
+      endPass();
+    }
+
+    private void startPass(int gfield, int[] afields, int depth) {
+      aggregator = newAggregator(gfield, afields);
+      passGbField = gfield;
+      passAFields = afields;
+      passDepth = depth;
+      parts = null;
+    }
+
+    /**
+     * Merges t into its group if that is in memory or there is room for it,
+     * and otherwise writes its group-by and aggregate fields to the spill
+     * file of its partition.
+     */
+    private void add(Tuple t) throws DbException {
+      if (parts == null) {
+        aggregator.mergeTupleIntoGroup(t);
+        // once all the hash bits are used up, a partition is aggregated in memory
+        if (aggregator.numGroups() >= maxGroups && passGbField != Aggregator.NO_GROUPING
+            && passDepth < 32 / PARTITION_BITS)
+          parts = new SpillFile[NUM_PARTITIONS];
+      } else if (!aggregator.mergeTupleIntoExistingGroup(t)) {
+        Field group = t.getField(passGbField);
+        int p = partitionOf(group, passDepth);
+        if (parts[p] == null)
+          parts[p] = new SpillFile(spillTd());
+        spillTuple.setField(0, group);
+        for (int j = 0; j < passAFields.length; j++)
+          spillTuple.setField(1 + j, t.getField(passAFields[j]));
+        parts[p].add(spillTuple);
+      }
+    }
+
+    /**
+     * @return the schema of spilled tuples: the group by field followed by
+     *         the aggregate fields
+     */
+    private TupleDesc spillTd() {
+      if (spillTd == null) {
+        Type[] types = new Type[1 + aggregateTypes.length];
+        types[0] = groupByType;
+        System.arraycopy(aggregateTypes, 0, types, 1, aggregateTypes.length);
+        spillTd = new TupleDesc(types);
+        spillTuple = new Tuple(spillTd);
+        spillAFields = new int[aggregateTypes.length];
+        for (int j = 0; j < spillAFields.length; j++)
+          spillAFields[j] = 1 + j;
+      }
+      return spillTd;
+    }
+
+    /**
+     * Queues the spill files of the pass and opens aggregateIter over the
+     * groups it kept in memory.
+     */
+    private void endPass() throws DbException, TransactionAbortedException {
+      if (parts != null) {
+        // depth first, so that at most NUM_PARTITIONS files per level are pending
+        for (int p = NUM_PARTITIONS - 1; p >= 0; p--) {
+          if (parts[p] != null)
+            pending.addFirst(new Partition(parts[p], passDepth + 1));
+        }
+        parts = null;
+      }
+      aggregateIter = aggregator.iterator();
+      aggregateIter.open();
+    }
+
+    /**
+     * @return the partition of a group value at a level of partitioning;
+     *         each level uses the next PARTITION_BITS bits of its hash
+     */
+    private static int partitionOf(Field f, int depth) {
+      int h = f.hashCode() * 0x9E3779B9;
+      return (h >>> (32 - PARTITION_BITS * (depth + 1))) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * @return the next aggregate result, aggregating the next spilled
+     *         partition when those in memory run out, or null if there are no
+     *         more
+     */
+    private Tuple nextResult() throws DbException, TransactionAbortedException {
+      while (!aggregateIter.hasNext()) {
+        if (pending.isEmpty())
+          return null;
+        Partition part = pending.removeFirst();
+        aggregateIter.close();
+        startPass(0, spillAFields, part.depth);
+        SpillFile.Reader r = part.file.reader();
+        Tuple t;
+        while ((t = r.next()) != null)
+          add(t);
+        r.close();
+        part.file.delete();
+        endPass();
+      }
+      return aggregateIter.next();
+    }
+
+    private void deletePending() {
+      for (Partition part : pending)
+        part.file.delete();
+      pending.clear();
+      if (parts != null) {
+        for (SpillFile f : parts) {
+          if (f != null)
+            f.delete();
+        }
+        parts = null;
+      }
     }
 
     /**
@@ -134,22 +539,41 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
       // same comment as above about exception handling
-      if (aggregateIter.hasNext())
-        return aggregateIter.next();
-      else
-        return null;
+      return nextResult();
+    }
+
+    /**
+     * Returns the next batch of aggregate results.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+      if (out == null)
+        out = new TupleBatch();
+      out.clear();
+      Tuple t;
+      while (!out.isFull() && (t = nextResult()) != null)
+        out.add(t);
+      return out.numSelected() == 0 ? null : out;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
       // same comment as above about exception handling
-      aggregateIter.rewind();
+      if (!spilled) { // every group is still in memory
+        aggregateIter.rewind();
+        return;
+      }
+      // the spilled groups are gone once they are returned, so start over
+      aggregateIter.close();
+      deletePending();
+      tupleIter.rewind();
+      aggregateChild();
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several aggregates there is one
+     * aggregate value column for each, in order.
      *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -157,13 +581,26 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-    	return tupleIter.getTupleDesc();
+      TupleDesc childTd = tupleIter.getTupleDesc();
+      int first = gbField == Aggregator.NO_GROUPING ? 0 : 1;
+      Type[] types = new Type[first + aFields.length];
+      String[] names = new String[types.length];
+      if (first == 1) {
+        types[0] = groupByType;
+        names[0] = childTd.getFieldName(gbField);
+      }
+      for (int j = 0; j < aFields.length; j++) {
+        types[first + j] = resultType(ops[j], aggregateTypes[j]);
+        names[first + j] = nameOfAggregatorOp(ops[j]) + " (" + childTd.getFieldName(aFields[j]) + ")";
+      }
+      return new TupleDesc(types, names);
     }
 
     public void close() {
       super.close(); // Operator.close();
     	tupleIter.close();
     	aggregateIter.close();
+    	deletePending();
     }
 
     // below functions are override implementations from Operator functions
@@ -171,13 +608,13 @@ public class Aggregate extends Operator {
     // If there is only one child, return an array of only one element.
     @Override
     public OpIterator[] getChildren() {
-      return new OpIterator[] {aggregateIter};
+      return new OpIterator[] {tupleIter};
     }
 
     // Set the children(child) of this operator. If the operator has only one child, children[0] should be used.
     @Override
     public void setChildren(OpIterator[] children) {
-      aggregateIter = children[0];
+      tupleIter = children[0];
     }
 
 }
@@ -76,6 +76,20 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate like mergeTupleIntoGroup, but only
+     * if its group value has already been encountered.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return false, without merging tup, if its group value is new
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct group values encountered so far
+     */
+    public int numGroups();
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -68,32 +69,28 @@ public class BTreeInternalPage extends BTreePage {
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxEntries() + 1;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// Read the parent pointer
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
+		this.parent = buf.getInt(0);
 
 		// read the child page category
-		childCategory = (int) dis.readByte();
+		childCategory = (int) buf.get(INDEX_SIZE);
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		System.arraycopy(data, INDEX_SIZE + 1, header, 0, header.length);
 
+		int keySize = td.getFieldType(keyField).getLen();
+		int offset = INDEX_SIZE + 1 + header.length;
 		keys = new Field[numSlots];
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
+			for (int i=1; i<keys.length; i++, offset += keySize)
+				keys[i] = readNextKey(buf,offset,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -101,12 +98,11 @@ public class BTreeInternalPage extends BTreePage {
 		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
+			for (int i=0; i<children.length; i++, offset += INDEX_SIZE)
+				children[i] = readNextChild(buf,offset,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -162,27 +158,18 @@ public class BTreeInternalPage extends BTreePage {
 	}
 
 	/**
-	 * Read keys from the source file.
+	 * Read the key in slot slotId, which starts at offset in buf.
 	 */
-	private Field readNextKey(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next key, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty key");
-				}
-			}
+	private Field readNextKey(ByteBuffer buf, int offset, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, there is no key to read: return null.
+		if (!isSlotUsed(slotId))
 			return null;
-		}
 
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
-		} catch (java.text.ParseException e) {
+			f = td.getFieldType(keyField).parse(buf, offset);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
 		}
@@ -191,28 +178,18 @@ public class BTreeInternalPage extends BTreePage {
 	}
 
 	/**
-	 * Read child pointers from the source file.
+	 * Read the child pointer in slot slotId, which starts at offset in buf.
 	 */
-	private int readNextChild(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next child pointer, and
-		// return -1.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<INDEX_SIZE; i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty child pointer");
-				}
-			}
+	private int readNextChild(ByteBuffer buf, int offset, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, there is no child pointer: return -1.
+		if (!isSlotUsed(slotId))
 			return -1;
-		}
 
 		// read child pointer
 		int child = -1;
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			child = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
+			child = buf.getInt(offset);
+		} catch (IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
 		}
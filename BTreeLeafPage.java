@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -12,7 +13,7 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte header[];
+	final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
 	
@@ -64,44 +65,26 @@ public class BTreeLeafPage extends BTreePage {
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// Read the parent and sibling pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.leftSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.rightSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
+		this.parent = buf.getInt(0);
+		this.leftSibling = buf.getInt(INDEX_SIZE);
+		this.rightSibling = buf.getInt(2 * INDEX_SIZE);
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		System.arraycopy(data, 3 * INDEX_SIZE, header, 0, header.length);
 
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+			int offset = 3 * INDEX_SIZE + header.length;
+			for (int i=0; i<tuples.length; i++, offset += td.getSize())
+				tuples[i] = readNextTuple(buf,offset,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -154,21 +137,12 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/**
-	 * Read tuples from the source file.
+	 * Read the tuple in slot slotId, which starts at offset in buf.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
+	private Tuple readNextTuple(ByteBuffer buf, int offset, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, there is no tuple to read: return null.
+		if (!isSlotUsed(slotId))
 			return null;
-		}
 
 		// read fields in the tuple
 		Tuple t = new Tuple(td);
@@ -176,10 +150,10 @@ public class BTreeLeafPage extends BTreePage {
 		t.setRecordId(rid);
 		try {
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
+				Field f = td.getFieldType(j).parse(buf, offset + td.getOffset(j));
 				t.setField(j, f);
 			}
-		} catch (java.text.ParseException e) {
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
 		}
@@ -521,26 +495,36 @@ public class BTreeLeafPage extends BTreePage {
  * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
  */
 class BTreeLeafPageIterator implements Iterator<Tuple> {
-	int curTuple = 0;
+	int wordIdx = 0; // index of the header word being walked
+	long word; // used slots of that word not returned yet
 	Tuple nextToReturn = null;
 	BTreeLeafPage p;
 
 	public BTreeLeafPageIterator(BTreeLeafPage p) {
 		this.p = p;
+		this.word = SlotBitmap.word(p.header, 0);
 	}
 
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (true) {
-				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
-					return true;
+		int numWords = SlotBitmap.numWords(p.getMaxTuples());
+		while (true) {
+			while (word == 0) {
+				if (++wordIdx >= numWords)
+					return false;
+				word = SlotBitmap.word(p.header, wordIdx);
 			}
-		} catch(NoSuchElementException e) {
-			return false;
+			int slot = (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+			word &= word - 1;
+			try {
+				nextToReturn = p.getTuple(slot);
+			} catch(NoSuchElementException e) {
+				return false;
+			}
+			if(nextToReturn != null)
+				return true;
 		}
 	}
 
@@ -569,28 +553,36 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
  * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage in reverse.
  */
 class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
-	int curTuple;
+	int wordIdx; // index of the header word being walked
+	long word; // used slots of that word not returned yet
 	Tuple nextToReturn = null;
 	BTreeLeafPage p;
 
 	public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
 		this.p = p;
-		this.curTuple = p.getMaxTuples() - 1;
+		this.wordIdx = SlotBitmap.numWords(p.getMaxTuples()) - 1;
+		this.word = wordIdx >= 0 ? SlotBitmap.word(p.header, wordIdx) : 0;
 	}
 
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (curTuple >= 0) {
-				nextToReturn = p.getTuple(curTuple--);
-				if(nextToReturn != null)
-					return true;
+		while (true) {
+			while (word == 0) {
+				if (--wordIdx < 0)
+					return false;
+				word = SlotBitmap.word(p.header, wordIdx);
+			}
+			int bit = 63 - Long.numberOfLeadingZeros(word);
+			word &= ~(1L << bit);
+			try {
+				nextToReturn = p.getTuple((wordIdx << 6) + bit);
+			} catch(NoSuchElementException e) {
+				continue; // past the last slot
 			}
-			return false;
-		} catch(NoSuchElementException e) {
-			return false;
+			if(nextToReturn != null)
+				return true;
 		}
 	}
 
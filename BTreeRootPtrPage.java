@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -16,7 +17,6 @@ public class BTreeRootPtrPage implements Page {
 	private TransactionId dirtier = null;
 
 	private BTreePageId pid;
-	private DataInputStream dis;
 
 	private int root; 
 	private int rootCategory;
@@ -35,14 +35,14 @@ public class BTreeRootPtrPage implements Page {
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// read in the root pointer
-		root = dis.readInt();
-		rootCategory = (int) dis.readByte();
+		root = buf.getInt(0);
+		rootCategory = (int) buf.get(4);
 
 		// read in the header pointer
-		header = dis.readInt();
+		header = buf.getInt(5);
 		
 		setBeforeImage();
 	}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Lets a tuple-at-a-time OpIterator be read in batches, by calling its
+ * hasNext/next to fill each batch. Use {@link #of} so that iterators that
+ * produce batches themselves are used directly.
+ */
+public class BatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    /**
+     * Returns it if it already implements BatchOpIterator, and an adapter
+     * over it otherwise.
+     */
+    public static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator)
+            return (BatchOpIterator) it;
+        return new BatchAdapter(it);
+    }
+
+    public BatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch();
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next().detach()); // rows of a batch must be distinct
+        return batch.numSelected() == 0 ? null : batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
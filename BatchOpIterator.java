@@ -0,0 +1,24 @@
+package simpledb;
+
+/**
+ * An OpIterator that can also hand out its tuples a batch at a time.
+ * <p>
+ * A consumer should read an opened iterator either with nextBatch or with
+ * hasNext/next, not both, until the iterator is rewound or closed.
+ *
+ * @see BatchAdapter
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch has at least one live row;
+     * it stays valid until the next call to nextBatch, rewind or close on
+     * this iterator, after which the iterator may refill it. The caller may
+     * narrow the batch's selection in the meantime.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
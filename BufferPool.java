@@ -73,13 +73,22 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
 	// check if page is in bufferpool already, if it is then return the page
-    	if(bp_map.containsKey(pid)) {
-    		return bp_map.get(pid);
+    	// (one lookup, since another thread may evict it right after a containsKey)
+    	Page bp_page = bp_map.get(pid);
+    	if(bp_page != null) {
+    		return bp_page;
     	}
     	
-    	else {
+    	// a miss: only one thread at a time reads a page in and evicts,
+    	// so the same page is not read twice and the pool stays in bounds
+    	synchronized (this) {
+    		//check again, another thread may have read it in while we waited
+    		bp_page = bp_map.get(pid);
+    		if(bp_page != null) {
+    			return bp_page;
+    		}
+    		
     		//checks if there is space in the bufferpool
-
     		if(bp_map.size() >= bp_maxPages) {
     			evictPage(); //this is not supposed to be implemented in lab 1
     		}
@@ -239,8 +248,10 @@ public class BufferPool {
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    	for (PageId pid : bp_map.keySet()) {
+    		if (tid.equals(bp_map.get(pid).isDirty())) //only pages dirtied by this transaction
+    			flushPage(pid);
+    	}
     }
 
     /**
@@ -47,12 +47,17 @@ public class Catalog {
     private ConcurrentHashMap<Integer, Table> catalogMap; // <TableID, Table>
     // should we also create name hash table?
 
+    // partitions of partitioned tables, which are not tables themselves but
+    // whose pages the buffer pool still has to find
+    private ConcurrentHashMap<Integer, DbFile> partitionMap; // <partition id, HeapFile>
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
         catalogMap = new ConcurrentHashMap<Integer, Table>();
+        partitionMap = new ConcurrentHashMap<Integer, DbFile>();
     }
 
     /**
@@ -78,6 +83,11 @@ public class Catalog {
             }
             // put the latest table
             catalogMap.put(tableId, new Table(file, name, pkeyField));
+            if (file instanceof PartitionedFile) {
+                PartitionedFile pf = (PartitionedFile) file;
+                for (int i = 0; i < pf.numPartitions(); i++)
+                    partitionMap.put(pf.getPartition(i).getId(), pf.getPartition(i));
+            }
         }
     }
 
@@ -121,13 +131,18 @@ public class Catalog {
         if (catalogMap.containsKey(tableid)){ // check if the table id exists
             return catalogMap.get(tableid).getFile().getTupleDesc();
         }
+        DbFile partition = partitionMap.get(tableid);
+        if (partition != null) { // pages of a partition are parsed with its table's schema
+            return partition.getTupleDesc();
+        }
         
         throw new NoSuchElementException();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table. The id of a partition of a {@link PartitionedFile}
+     * returns the HeapFile of that partition.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
@@ -135,6 +150,10 @@ public class Catalog {
         if (catalogMap.containsKey(tableid)){
             return catalogMap.get(tableid).getFile();
         }
+        DbFile partition = partitionMap.get(tableid);
+        if (partition != null) {
+            return partition;
+        }
         
         throw new NoSuchElementException();
     }
@@ -162,11 +181,16 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         catalogMap.clear();
+        partitionMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <tt>name (field type [pk], ...)</tt>, optionally
+     * followed by <tt>partition by field (b1, b2, ...)</tt> to range-partition the
+     * table on an int field at the given boundaries.
      * @param catalogFile
+     * @see PartitionedFile
      */
     public void loadSchema(String catalogFile) {
         String line = "";
@@ -186,10 +210,9 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1].trim());
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -205,15 +228,37 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                TupleDesc t = TupleDesc.intern(new TupleDesc(typeAr, namesAr));
+                String rest = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf;
+                if (rest.isEmpty()) {
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                } else {
+                    //assume rest is of the format partition by field (bound, bound, ...)
+                    String[] words = rest.substring(0, rest.indexOf("(")).trim().split("\\s+");
+                    if (words.length != 3 || !words[0].equalsIgnoreCase("partition")
+                            || !words[1].equalsIgnoreCase("by")) {
+                        System.out.println("Unknown table option " + rest);
+                        System.exit(0);
+                    }
+                    int partField = names.indexOf(words[2]);
+                    if (partField < 0 || typeAr[partField] != Type.INT_TYPE) {
+                        System.out.println("Cannot partition on " + words[2]);
+                        System.exit(0);
+                    }
+                    String[] boundEls = rest.substring(rest.indexOf("(") + 1, rest.indexOf(")")).split(",");
+                    int[] bounds = new int[boundEls.length];
+                    for (int i = 0; i < bounds.length; i++)
+                        bounds[i] = Integer.parseInt(boundEls[i].trim());
+                    tabHf = new PartitionedFile(new File(baseFolder+"/"+name + ".dat"), t, partField, bounds);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
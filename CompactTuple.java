@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A Tuple that stores its values unboxed. Int fields live in an int[], long
+ * and double fields in a long[] (doubles as their raw bits), and string fields
+ * in one shared byte[] holding Type.STRING_LEN bytes per string field, so a
+ * tuple costs a handful of allocations whatever its width, instead of one
+ * Field object per column.
+ * <p>
+ * {@link #getInt}, {@link #getLong}, {@link #getDouble} and {@link #getString}
+ * read the arrays directly. Field
+ * objects are only built when {@link #getField} asks for them, and are then
+ * kept so that repeated calls return the same object. StringFields wrap the
+ * tuple's own bytes; setting a string field afterwards copies the bytes first,
+ * so fields already handed out do not change.
+ * <p>
+ * HeapPage builds its tuples this way; see {@link #readFields}.
+ */
+public class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Where each field of a schema is kept in a CompactTuple. Tuples of the
+     * same page or operator can share one Layout.
+     */
+    public static class Layout {
+        final Type[] types;
+        // for a string field, the offset of its bytes in chars; -1 for int fields
+        final int[] charOffset;
+        final int charBytes;
+        // for a long or double field, its index in wide; -1 for other fields
+        final int[] wideIndex;
+        final int wideFields;
+
+        public Layout(TupleDesc td) {
+            int n = td.numFields();
+            types = new Type[n];
+            charOffset = new int[n];
+            wideIndex = new int[n];
+            int off = 0;
+            int w = 0;
+            for (int i = 0; i < n; i++) {
+                types[i] = td.getFieldType(i);
+                charOffset[i] = -1;
+                wideIndex[i] = -1;
+                if (types[i] == Type.STRING_TYPE) {
+                    charOffset[i] = off;
+                    off += Type.STRING_LEN;
+                } else if (types[i] == Type.LONG_TYPE || types[i] == Type.DOUBLE_TYPE) {
+                    wideIndex[i] = w++;
+                }
+            }
+            charBytes = off;
+            wideFields = w;
+        }
+    }
+
+    private final Layout layout;
+    // int fields: the value; string fields: the length in bytes of the string
+    private final int[] values;
+    private final long[] wide;
+    private byte[] chars;
+    private boolean charsShared; // chars is wrapped by a StringField handed out by getField
+    private final long[] present; // bit i is set once field i has been set
+    private transient Field[] materialized;
+
+    /**
+     * Create a new, empty compact tuple with the specified schema.
+     *
+     * @param td
+     *            the schema of this tuple.
+     */
+    public CompactTuple(TupleDesc td) {
+        this(td, new Layout(td));
+    }
+
+    /**
+     * Create a new, empty compact tuple with the specified schema, reusing a
+     * layout already computed for it.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param layout
+     *            a layout created from td (or a schema with the same types).
+     */
+    public CompactTuple(TupleDesc td, Layout layout) {
+        super(td, NO_FIELD_LIST);
+        this.layout = layout;
+        this.values = new int[layout.types.length];
+        this.wide = layout.wideFields == 0 ? null : new long[layout.wideFields];
+        this.chars = layout.charBytes == 0 ? null : new byte[layout.charBytes];
+        this.present = new long[(layout.types.length + 63) >>> 6];
+    }
+
+    /**
+     * Copy constructor used by {@link #copy}.
+     */
+    private CompactTuple(CompactTuple other) {
+        super(other.getTupleDesc(), NO_FIELD_LIST);
+        this.layout = other.layout;
+        this.values = other.values.clone();
+        this.wide = other.wide == null ? null : other.wide.clone();
+        this.chars = other.chars == null ? null : other.chars.clone();
+        this.present = other.present.clone();
+        setRecordId(other.getRecordId());
+    }
+
+    @Override
+    protected Tuple copy() {
+        return new CompactTuple(this);
+    }
+
+    /**
+     * @return the array holding the values of the INT_TYPE fields, at the
+     *         indexes of those fields, for callers that copy many of them at
+     *         once; entries of other fields and of unset fields mean nothing.
+     *         The array must not be modified.
+     */
+    int[] intValues() {
+        return values;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= values.length)
+            throw new NoSuchElementException("Index Out Of Bounds \n");
+    }
+
+    /**
+     * Checks that the ith field exists and is of the given type, as the
+     * casts in Tuple's typed getters do.
+     */
+    private void checkType(int i, Type type) {
+        checkIndex(i);
+        if (layout.types[i] != type)
+            throw new ClassCastException("field " + i + " is of " + layout.types[i]
+                    + ", not " + type);
+    }
+
+    /**
+     * Checks that the ith field is of the given type and has been set.
+     */
+    private void checkSet(int i, Type type) {
+        checkType(i, type);
+        if (!isSet(i))
+            throw new NoSuchElementException("field " + i + " has not been set");
+    }
+
+    private boolean isSet(int i) {
+        return (present[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void markSet(int i) {
+        present[i >>> 6] |= 1L << i;
+        if (materialized != null)
+            materialized[i] = null;
+    }
+
+    /**
+     * Reads the values of all fields from buf, in the on-disk format written
+     * by Field.serialize, starting at the given absolute offset, and marks
+     * them set. The position of buf is not changed.
+     *
+     * @throws IllegalArgumentException
+     *             if a string field has an invalid length
+     * @see Type#parse(ByteBuffer, int)
+     */
+    public void readFields(ByteBuffer buf, int offset) {
+        unshareChars();
+        for (int i = 0; i < values.length; i++) {
+            Type type = layout.types[i];
+            if (type == Type.INT_TYPE) {
+                values[i] = buf.getInt(offset);
+            } else if (type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE) {
+                wide[layout.wideIndex[i]] = buf.getLong(offset); // a double's raw bits
+            } else {
+                int len = Type.stringLength(buf, offset);
+                Type.getBytes(buf, offset + 4, chars, layout.charOffset[i], len);
+                values[i] = len;
+            }
+            offset += type.getLen();
+        }
+        Arrays.fill(present, -1L);
+        materialized = null;
+    }
+
+    /**
+     * Gives this tuple a private copy of chars if StringFields handed out by
+     * getField still wrap the current one.
+     */
+    private void unshareChars() {
+        if (charsShared) {
+            chars = chars.clone();
+            charsShared = false;
+        }
+    }
+
+    @Override
+    public void setField(int i, Field f) throws NoSuchElementException {
+        checkIndex(i);
+        if (f.getType() != layout.types[i]) // if field type does not match
+            return;
+        if (f instanceof IntField) {
+            values[i] = ((IntField) f).getValue();
+        } else if (f instanceof LongField) {
+            wide[layout.wideIndex[i]] = ((LongField) f).getValue();
+        } else if (f instanceof DoubleField) {
+            wide[layout.wideIndex[i]] = Double.doubleToRawLongBits(((DoubleField) f).getValue());
+        } else {
+            unshareChars();
+            values[i] = ((StringField) f).copyBytes(chars, layout.charOffset[i], Type.STRING_LEN);
+        }
+        markSet(i);
+    }
+
+    /**
+     * Sets the ith field, which must be of INT_TYPE, without boxing.
+     */
+    public void setInt(int i, int value) {
+        checkType(i, Type.INT_TYPE);
+        values[i] = value;
+        markSet(i);
+    }
+
+    /**
+     * Sets the ith field, which must be of LONG_TYPE, without boxing.
+     */
+    public void setLong(int i, long value) {
+        checkType(i, Type.LONG_TYPE);
+        wide[layout.wideIndex[i]] = value;
+        markSet(i);
+    }
+
+    /**
+     * Sets the ith field, which must be of DOUBLE_TYPE, without boxing.
+     */
+    public void setDouble(int i, double value) {
+        checkType(i, Type.DOUBLE_TYPE);
+        wide[layout.wideIndex[i]] = Double.doubleToRawLongBits(value);
+        markSet(i);
+    }
+
+    @Override
+    public Field getField(int i) {
+        checkIndex(i);
+        if (!isSet(i))
+            return null;
+        if (materialized == null)
+            materialized = new Field[values.length];
+        Field f = materialized[i];
+        if (f == null) {
+            Type type = layout.types[i];
+            if (type == Type.INT_TYPE)
+                f = new IntField(values[i]);
+            else if (type == Type.LONG_TYPE)
+                f = new LongField(wide[layout.wideIndex[i]]);
+            else if (type == Type.DOUBLE_TYPE)
+                f = new DoubleField(Double.longBitsToDouble(wide[layout.wideIndex[i]]));
+            else {
+                f = new StringField(chars, layout.charOffset[i], values[i], Type.STRING_LEN);
+                charsShared = true;
+            }
+            materialized[i] = f;
+        }
+        return f;
+    }
+
+    @Override
+    public int getInt(int i) {
+        checkSet(i, Type.INT_TYPE);
+        return values[i];
+    }
+
+    @Override
+    public long getLong(int i) {
+        checkSet(i, Type.LONG_TYPE);
+        return wide[layout.wideIndex[i]];
+    }
+
+    @Override
+    public double getDouble(int i) {
+        checkSet(i, Type.DOUBLE_TYPE);
+        return Double.longBitsToDouble(wide[layout.wideIndex[i]]);
+    }
+
+    @Override
+    public String getString(int i) {
+        checkSet(i, Type.STRING_TYPE);
+        return new String(chars, layout.charOffset[i], values[i], StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        ArrayList<Field> fs = new ArrayList<Field>(values.length);
+        for (int i = 0; i < values.length; i++)
+            fs.add(getField(i));
+        return fs.iterator();
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The copy operator. Copy bulk-loads the contents of a file into an existing
+ * HeapFile table, in the style of SQL's COPY ... FROM. Unlike {@link Insert},
+ * tuples do not go through the buffer pool one at a time: the input is turned
+ * into whole pages and appended to the end of the table with
+ * {@link HeapFile#appendPageFile}, which logs one record per batch of pages.
+ * <p>
+ * A source file whose name ends in ".dat" is taken to already be in HeapPage
+ * format (for example the output of <tt>SimpleDb convert</tt>) and is appended
+ * as is. Any other file is read as delimited text, in the format accepted by
+ * {@link HeapFileEncoder}, and encoded with the table's schema first.
+ */
+public class Copy extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private TransactionId t;
+    private File source;
+    private int tableId;
+    private char fieldSeparator;
+    private boolean called;
+    private TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the copy.
+     * @param source
+     *            The file to load tuples from.
+     * @param tableId
+     *            The table to load tuples into.
+     * @param fieldSeparator
+     *            The character between fields if source is a text file.
+     * @throws DbException
+     *             if the table is not stored in a HeapFile.
+     */
+    public Copy(TransactionId t, File source, int tableId, char fieldSeparator)
+            throws DbException {
+        this.t = t;
+        this.source = source;
+        this.tableId = tableId;
+        this.fieldSeparator = fieldSeparator;
+        this.called = false;
+
+        Type[] typeArray = new Type[] {Type.INT_TYPE}; // int type because we will return how many tuples have been copied
+        String[] stringArray = new String[] {"Copied Tuples"};
+        this.td = new TupleDesc(typeArray, stringArray);
+
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new DbException("COPY is only supported into heap files");
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+    }
+
+    /**
+     * Loads the source file into the table specified by the constructor.
+     *
+     * @return A 1-field tuple containing the number of copied records, or
+     *         null if called more than once.
+     * @see HeapFile#appendPageFile
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.called) return null;
+
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
+        File pages = this.source;
+        boolean temp = !this.source.getName().endsWith(".dat");
+        int count;
+        try {
+            if (temp) {
+                TupleDesc ftd = hf.getTupleDesc();
+                Type[] types = new Type[ftd.numFields()];
+                for (int i = 0; i < types.length; i++)
+                    types[i] = ftd.getFieldType(i);
+                pages = File.createTempFile("copy", ".dat");
+                HeapFileEncoder.convertParallel(this.source, pages, BufferPool.getPageSize(),
+                        types.length, types, this.fieldSeparator,
+                        Runtime.getRuntime().availableProcessors());
+            }
+            count = hf.appendPageFile(this.t, pages);
+        } catch (IOException e) {
+            throw new DbException("IO exception while copying " + this.source + ": " + e.getMessage());
+        } finally {
+            if (temp && pages != this.source)
+                pages.delete();
+        }
+
+        // return how many tuples we have copied as a confirmation
+        Tuple result = new Tuple(this.td);
+        result.setField(0, new IntField(count));
+        this.called = true;
+
+        return result;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
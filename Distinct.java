@@ -0,0 +1,299 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Distinct is an operator that implements SELECT DISTINCT: it returns every
+ * distinct row of its child once. Rows are streamed: a row is returned as
+ * soon as it is first read, and the operator remembers it in a hash set so
+ * that later copies are dropped.
+ * <p>
+ * At most {@link #MAX_ROWS} rows are remembered (see
+ * {@link #setMaxRowsInMemory}). Once the set is full, copies of the rows in it
+ * are still dropped, but rows not in it are written to NUM_PARTITIONS spill
+ * files by their hash. After the child is exhausted each spill file is read
+ * back the same way with an empty set, splitting it again on the next bits
+ * of the hash if it is still too large. Rows from spill files therefore come
+ * after the others.
+ * <p>
+ * If the child is sorted on some of its fields, equal rows are in the same
+ * run of rows that agree on those fields, so the set only needs to hold the
+ * current run and is cleared when the next one starts. Spill files of a run
+ * are read back before the next run, which keeps the rows in order.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of rows remembered at once. When there are more
+     * distinct rows (in a run), the operator spills the others to disk.
+     */
+    public final static int MAX_ROWS = 20000;
+
+    /** Number of partitions a spilling Distinct splits its rows into. */
+    final static int PARTITION_BITS = 4;
+    final static int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    private OpIterator child;
+    private int[] sortedFields;
+    private int maxRows = MAX_ROWS;
+
+    /** The values of a row, compared field by field. */
+    private static final class RowKey {
+        final Field[] fields;
+        final int hash;
+
+        RowKey(Tuple t) {
+            fields = new Field[t.getTupleDesc().numFields()];
+            int h = 0;
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = t.getField(i);
+                h = 31 * h + fields[i].hashCode();
+            }
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof RowKey && ((RowKey) o).hash == hash
+                    && Arrays.equals(((RowKey) o).fields, fields);
+        }
+    }
+
+    /** A spill file of rows not yet known to be distinct. */
+    private static class Partition {
+        final SpillFile file;
+        final int depth; // how many times its rows have been partitioned
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    private transient HashSet<RowKey> seen;
+    private transient RowKey runKey; // last row of the child in sorted mode
+    private transient Tuple held; // first row of a run, waiting for the previous run's spill files
+    private transient SpillFile[] parts; // non-null once the current pass spills
+    private transient int passDepth;
+    private transient LinkedList<Partition> pending;
+    private transient Partition reading; // partition being read, or null while the child is
+    private transient SpillFile.Reader reader;
+
+    /**
+     * Constructor for a Distinct over any child; duplicates are found with a
+     * hash set of all rows.
+     *
+     * @param child
+     *            The child operator
+     */
+    public Distinct(OpIterator child) {
+        this(child, new int[0]);
+    }
+
+    /**
+     * Constructor for a Distinct over a child that is sorted on some fields.
+     *
+     * @param child
+     *            The child operator
+     * @param sortedFields
+     *            fields the child is sorted on, most significant first; rows
+     *            of the child that agree on these fields must be adjacent
+     */
+    public Distinct(OpIterator child, int[] sortedFields) {
+        this.child = child;
+        this.sortedFields = sortedFields;
+    }
+
+    /**
+     * Sets how many rows this operator may remember at once. Takes effect
+     * when the operator is next opened or rewound.
+     */
+    public void setMaxRowsInMemory(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return the fields the child is known to be sorted on
+     */
+    public int[] getSortedFields() {
+        return sortedFields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        seen = new HashSet<RowKey>();
+        runKey = null;
+        held = null;
+        parts = null;
+        passDepth = 0;
+        pending = new LinkedList<Partition>();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        deleteSpillFiles();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        deleteSpillFiles();
+        reset();
+    }
+
+    private void deleteSpillFiles() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (reading != null) {
+            reading.file.delete();
+            reading = null;
+        }
+        if (pending != null) {
+            for (Partition p : pending)
+                p.file.delete();
+            pending.clear();
+        }
+        if (parts != null) {
+            for (SpillFile f : parts) {
+                if (f != null)
+                    f.delete();
+            }
+            parts = null;
+        }
+    }
+
+    /**
+     * @return true if the rows with keys a and b agree on the sorted fields
+     */
+    private boolean sameRun(RowKey a, RowKey b) {
+        for (int i = 0; i < sortedFields.length; i++) {
+            if (!a.fields[sortedFields[i]].equals(b.fields[sortedFields[i]]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the partition of a row at a level of partitioning; each level
+     *         uses the next PARTITION_BITS bits of its hash
+     */
+    private static int partitionOf(RowKey key, int depth) {
+        int h = key.hash * 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (depth + 1))) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * Ends the pass over the child, a run of it, or a partition: queues the
+     * spill files of the pass and forgets its rows.
+     */
+    private void endPass() {
+        if (parts != null) {
+            // depth first, so that at most NUM_PARTITIONS files per level are pending
+            for (int p = NUM_PARTITIONS - 1; p >= 0; p--) {
+                if (parts[p] != null)
+                    pending.addFirst(new Partition(parts[p], passDepth + 1));
+            }
+            parts = null;
+        }
+        seen.clear();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next row that has not
+     * been returned before.
+     *
+     * @return The next distinct row, or null if there are no more rows
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (true) {
+            Tuple t;
+            RowKey key;
+            if (reader != null) { // reading a partition
+                t = reader.next();
+                if (t == null) {
+                    reader.close();
+                    reader = null;
+                    reading.file.delete();
+                    reading = null;
+                    endPass();
+                    continue;
+                }
+                key = new RowKey(t);
+            } else if (!pending.isEmpty()) { // read the next partition
+                reading = pending.removeFirst();
+                reader = reading.file.reader();
+                passDepth = reading.depth;
+                continue;
+            } else { // reading the child
+                passDepth = 0;
+                if (held != null) {
+                    t = held;
+                    held = null;
+                } else if (child.hasNext()) {
+                    t = child.next();
+                } else {
+                    endPass();
+                    if (pending.isEmpty())
+                        return null;
+                    continue;
+                }
+                key = new RowKey(t);
+                if (sortedFields.length > 0) {
+                    if (runKey != null && !sameRun(runKey, key)) {
+                        // rows of different runs are never equal
+                        endPass();
+                        if (!pending.isEmpty()) { // finish the previous run first
+                            held = t.detach();
+                            runKey = null;
+                            continue;
+                        }
+                    }
+                    runKey = key;
+                }
+            }
+
+            if (seen.contains(key))
+                continue;
+            if (parts == null) {
+                // once all the hash bits are used up, the rows are kept in memory
+                if (seen.size() < maxRows || passDepth >= 32 / PARTITION_BITS) {
+                    seen.add(key);
+                    return t;
+                }
+                parts = new SpillFile[NUM_PARTITIONS];
+            }
+            int p = partitionOf(key, passDepth);
+            if (parts[p] == null)
+                parts[p] = new SpillFile(child.getTupleDesc());
+            parts[p].add(t);
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double precision floating point
+ * number.
+ * <p>
+ * Values are compared with {@link Double#compare}, so NaN equals itself and
+ * sorts above every other value, and -0.0 sorts below 0.0. This keeps
+ * equals, hashCode and the comparison operators consistent with each other.
+ */
+public class DoubleField implements Field {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        return Double.compare(((DoubleField) field).value, value) == 0;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DoubleField dVal = (DoubleField) val;
+        return compare(op, value, dVal.value);
+    }
+
+    /**
+     * Compares two unboxed double values with the semantics of
+     * {@link #compare(Predicate.Op, Field)}.
+     *
+     * @return true if <tt>value op other</tt> holds
+     */
+    public static boolean compare(Predicate.Op op, double value, double other) {
+        int c = Double.compare(value, other);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DOUBLE_TYPE
+     */
+	public Type getType() {
+		return Type.DOUBLE_TYPE;
+	}
+}
@@ -5,12 +5,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     
     private Predicate _p;
     private OpIterator _childIt;
+    private transient BatchOpIterator _childBatches;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -69,6 +70,24 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Reads the child in batches and narrows each batch's selection to the
+     * tuples that pass the predicate, skipping batches left empty.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	if (_childBatches == null)
+    		_childBatches = BatchAdapter.of(_childIt);
+    	TupleBatch b;
+    	while ((b = _childBatches.nextBatch()) != null) {
+    		_p.filter(b);
+    		if (b.numSelected() > 0)
+    			return b;
+    	}
+    	return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
     	return new OpIterator[] {_childIt};
@@ -78,6 +97,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
     	if (_childIt != children[0]) {
             _childIt = children[0];
+            _childBatches = null;
         }
     }
 
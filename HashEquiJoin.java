@@ -4,8 +4,19 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * This one is a hash join on an equality predicate. child1 is loaded into a
+ * hash table and probed with the tuples of child2; joins on two INT_TYPE
+ * fields use an {@link IntJoinTable}, which probes without boxing the key or
+ * allocating. When child1 has more than
+ * {@link #MAP_SIZE} tuples (see {@link #setMaxTuplesInMemory}), it becomes a
+ * hybrid hash join: both inputs are split into partitions by the hash of
+ * their join field, partition 0 is joined in memory while child2 is read, and
+ * the other partitions are written to spill files and joined pairwise
+ * afterwards. A partition of child1 that is still too large is joined a
+ * chunk at a time against its partition of child2.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -30,6 +41,8 @@ public class HashEquiJoin extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -51,50 +64,299 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    // used instead of map when both join fields are INT_TYPE
+    transient private IntJoinTable intTable = null;
+    private final boolean intKeys;
+
+    /**
+     * Default number of child1 tuples kept in memory at once. When child1 has
+     * more, the join switches to a hybrid hash join that spills to disk.
+     */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /** Number of partitions a spilling join splits its inputs into. */
+    final static int PARTITION_BITS = 4;
+    final static int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    private int maxInMemory = MAP_SIZE;
+
+    // build side state: the chunk or partition of child1 that map holds
+    transient private boolean grace = false; // child1 did not fit in memory
+    transient private SpillFile[] leftParts = null;
+    transient private SpillFile[] rightParts = null;
+    transient private int part = -1; // spilled partition being joined; -1 while child2 is read
+    transient private SpillFile.Reader buildReader = null; // rest of an oversized partition
+
+    // probe side state
+    transient private BatchOpIterator probeBatches = null;
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private SpillFile.Reader probeReader = null;
+
+    /**
+     * Sets how many child1 tuples this join may hold in memory. Takes effect
+     * when the join is next opened or rewound.
+     */
+    public void setMaxTuplesInMemory(int maxTuples) {
+        this.maxInMemory = maxTuples;
+    }
+
+    /**
+     * @return the partition of a join field value
+     */
+    private static int partitionOf(Field f) {
+        if (f == null)
+            return 0;
+        return (f.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    private void addToMap(Tuple t) {
+        if (intKeys) {
+            intTable.add(t.getInt(pred.getField1()), t);
+            return;
+        }
+        Field f = t.getField(pred.getField1());
+        ArrayList<Tuple> list = map.get(f);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(f, list);
+        }
+        list.add(t);
+    }
+
+    private void clearMap() {
         map.clear();
+        if (intKeys) {
+            if (intTable == null)
+                intTable = new IntJoinTable(Math.min(maxInMemory, MAP_SIZE));
+            intTable.clear();
+        }
+    }
+
+    /**
+     * Removes every tuple from the map.
+     *
+     * @return the removed tuples
+     */
+    private ArrayList<Tuple> drainMap() {
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        if (intKeys) {
+            for (int r = 0; r < intTable.size(); r++)
+                all.add(intTable.get(r));
+        } else {
+            for (ArrayList<Tuple> list : map.values())
+                all.addAll(list);
+        }
+        clearMap();
+        return all;
+    }
+
+    /**
+     * Reads child1 into the map. If it holds more than maxInMemory tuples,
+     * switches to a hybrid hash join: child1 is split into NUM_PARTITIONS
+     * partitions by the hash of the join field; partition 0 stays in the map
+     * and the others are written to spill files, to be joined once child2 has
+     * been read.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        clearMap();
+        int cnt = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Tuple t = child1.next();
+            if (!grace) {
+                addToMap(t.detach()); // kept in the map
+                if (++cnt > maxInMemory)
+                    cnt = startSpilling();
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            int p = partitionOf(t.getField(pred.getField1()));
+            if (leftParts[p] == null) {
+                addToMap(t.detach());
+                if (++cnt > maxInMemory) {
+                    // partition 0 does not fit either: spill it too
+                    leftParts[0] = new SpillFile(child1.getTupleDesc());
+                    for (Tuple u : drainMap())
+                        leftParts[0].add(u);
+                }
+            } else {
+                leftParts[p].add(t);
+            }
+        }
+    }
+
+    /**
+     * Switches to the hybrid hash join: moves the tuples of partitions 1 and
+     * up from the map to their spill files.
+     *
+     * @return the number of tuples left in the map
+     */
+    private int startSpilling() throws DbException {
+        grace = true;
+        leftParts = new SpillFile[NUM_PARTITIONS];
+        rightParts = new SpillFile[NUM_PARTITIONS];
+        for (int p = 1; p < NUM_PARTITIONS; p++) {
+            leftParts[p] = new SpillFile(child1.getTupleDesc());
+            rightParts[p] = new SpillFile(child2.getTupleDesc());
+        }
+        int kept = 0;
+        for (Tuple t : drainMap()) {
+            int p = partitionOf(t.getField(pred.getField1()));
+            if (p != 0) {
+                leftParts[p].add(t);
+            } else {
+                addToMap(t);
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Loads the next chunk of at most maxInMemory tuples of buildReader into
+     * the map.
+     *
+     * @return false if buildReader is exhausted
+     */
+    private boolean loadChunk() throws DbException {
+        clearMap();
+        Tuple t;
+        int cnt = 0;
+        while (cnt < maxInMemory && (t = buildReader.next()) != null) {
+            addToMap(t);
+            cnt++;
+        }
+        if (cnt < maxInMemory) {
+            buildReader.close();
+            buildReader = null;
         }
         return cnt > 0;
+    }
+
+    /**
+     * @return the next tuple to probe the map with, or null when the probe
+     *         input of the current build chunk is exhausted. While child2 is
+     *         read, its tuples of spilled partitions are written to their
+     *         spill files instead.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (probeReader != null)
+            return probeReader.next();
+        while (true) {
+            if (probe == null || probePos == probe.numSelected()) {
+                probe = probeBatches.nextBatch();
+                probePos = 0;
+                if (probe == null)
+                    return null;
+            }
+            Tuple t = probe.get(probePos++);
+            if (!grace)
+                return t;
+            int p = partitionOf(t.getField(pred.getField2()));
+            if (rightParts[p] == null)
+                return t;
+            rightParts[p].add(t);
+        }
+    }
 
+    /**
+     * Moves on to the next piece of the join once the probe input of the
+     * current one is exhausted: the next chunk of an oversized partition, or
+     * the next spilled partition.
+     *
+     * @return false if the join is complete
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (!grace)
+            return false;
+        while (true) {
+            if (buildReader == null) {
+                if (++part >= NUM_PARTITIONS)
+                    return false;
+                if (leftParts[part] == null)
+                    continue;
+                buildReader = leftParts[part].reader();
+            }
+            if (loadChunk()) {
+                probeReader = rightParts[part].reader();
+                return true;
+            }
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
+    /**
+     * Builds the map from child1 and prepares to probe it with child2.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        probeBatches = BatchAdapter.of(child2);
+        build();
+        if (grace && leftParts[0] != null)
+            rightParts[0] = new SpillFile(child2.getTupleDesc());
+    }
+
+    /**
+     * Drops the state of the current run, deleting its spill files.
+     */
+    private void reset() {
+        if (buildReader != null)
+            buildReader.close();
+        if (probeReader != null)
+            probeReader.close();
+        for (SpillFile[] parts : new SpillFile[][] { leftParts, rightParts }) {
+            if (parts == null)
+                continue;
+            for (SpillFile f : parts)
+                if (f != null)
+                    f.delete();
+        }
+        grace = false;
+        leftParts = null;
+        rightParts = null;
+        part = -1;
+        buildReader = null;
+        probeReader = null;
+        this.t1 = null;
+        this.t2 = null;
+        this.listIt = null;
+        this.matchRow = -1;
+        this.map.clear();
+        this.intTable = null;
+        this.probe = null;
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
+    transient private int matchRow = -1; // next match in intTable, or -1
+
+    transient private TupleBatch out = null;
+
+    // output tuples in reuse mode
+    transient private TupleRing ring = null;
+    transient private TupleRing batchRing = null;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -114,14 +376,19 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+    private Tuple processList(TupleRing ring) throws TransactionAbortedException, DbException {
+        if (intKeys) {
+            t1 = intTable.get(matchRow);
+            matchRow = intTable.next(matchRow);
+        } else {
+            t1 = listIt.next();
+        }
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
+        // set fields in combined tuple, a recycled one in reuse mode
+        Tuple t = ring != null ? ring.next() : new Tuple(comboTD);
         for (int i = 0; i < td1n; i++)
             t.setField(i, t1.getField(i));
         for (int i = 0; i < td2n; i++)
@@ -130,33 +397,52 @@ public class HashEquiJoin extends Operator {
 
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * @return the next combined tuple, taken from ring if it is not null, or
+     *         null if the join is complete
+     */
+    private Tuple nextJoined(TupleRing ring) throws TransactionAbortedException, DbException {
+        while (true) {
+            if (intKeys ? matchRow >= 0 : listIt != null && listIt.hasNext())
+                return processList(ring);
+            t2 = nextProbe();
+            if (t2 == null) {
+                listIt = null;
+                matchRow = -1;
+                if (!advance())
+                    return null;
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            }
+            if (intKeys) {
+                matchRow = intTable.first(t2.getInt(pred.getField2()));
+            } else {
+                ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+                listIt = l == null ? null : l.iterator();
+            }
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (getReuseTuples() && ring == null)
+            ring = new TupleRing(comboTD, TupleRing.TUPLE_SIZE);
+        return nextJoined(getReuseTuples() ? ring : null);
+    }
 
-        return null;
+    /**
+     * Batch version of {@link #fetchNext}, filling an output batch with the
+     * combined tuples. child2 is read in batches either way.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch();
+        out.clear();
+        if (getReuseTuples() && batchRing == null)
+            batchRing = new TupleRing(comboTD, out.capacity());
+        TupleRing ring = getReuseTuples() ? batchRing : null;
+        Tuple t;
+        while (!out.isFull() && (t = nextJoined(ring)) != null)
+            out.add(t);
+        return out.numSelected() == 0 ? null : out;
     }
 
     @Override
@@ -168,6 +454,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.probeBatches = null;
     }
     
 }
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -15,11 +17,20 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages copied (and described by one log record) per batch in {@link #appendPageFile}. */
+    public static final int APPEND_BATCH_PAGES = 256;
+
     private File file;
     private int id;
     private TupleDesc td;
     private int numPages;
 
+    // guard between foreground accesses (scans, inserts, deletes, appends)
+    // and a HeapFileVacuum increment, which moves tuples between pages and
+    // cuts pages off the end of the file
+    private int activeAccesses = 0;
+    private boolean vacuuming = false;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -107,9 +118,76 @@ public class HeapFile implements DbFile {
     }
     
 
+    /**
+     * Marks the start of a scan, insert, delete or append, which needs tuples
+     * to stay on their pages and pages to stay in the file until the matching
+     * {@link #endAccess}. Waits while a vacuum increment is running; a
+     * vacuum increment in turn does not start while there are accesses.
+     *
+     * @see HeapFileVacuum
+     */
+    synchronized void beginAccess() throws DbException {
+        while (vacuuming) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for vacuum");
+            }
+        }
+        activeAccesses++;
+    }
+
+    /**
+     * Marks the end of an access started by {@link #beginAccess}.
+     */
+    synchronized void endAccess() {
+        if (--activeAccesses == 0)
+            notifyAll();
+    }
+
+    /**
+     * Starts a vacuum increment if there are no accesses to the file.
+     *
+     * @return false, without starting one, if there are
+     */
+    synchronized boolean tryBeginVacuum() {
+        if (vacuuming || activeAccesses > 0)
+            return false;
+        vacuuming = true;
+        return true;
+    }
+
+    /**
+     * Starts a vacuum increment, waiting for the current accesses to the
+     * file to end first.
+     */
+    synchronized void beginVacuum() throws InterruptedException {
+        while (vacuuming || activeAccesses > 0)
+            wait();
+        vacuuming = true;
+    }
+
+    /**
+     * Ends a vacuum increment, letting waiting accesses proceed.
+     */
+    synchronized void endVacuum() {
+        vacuuming = false;
+        notifyAll();
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        beginAccess();
+        try {
+            return insertIntoPages(tid, t);
+        } finally {
+            endAccess();
+        }
+    }
+
+    private ArrayList<Page> insertIntoPages(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
      	if  ( t == null )
     	{
     		throw new DbException("TupleDesc does not match this file");
@@ -169,9 +247,130 @@ public class HeapFile implements DbFile {
     	}
     	
 
-        HeapPage hf_hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        hf_hp.deleteTuple(t);
-        return new ArrayList<Page> (Arrays.asList(hf_hp)); 
+        beginAccess();
+        try {
+            HeapPage hf_hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            hf_hp.deleteTuple(t);
+            return new ArrayList<Page> (Arrays.asList(hf_hp));
+        } finally {
+            endAccess();
+        }
+    }
+
+    /**
+     * Appends the pages of a file in HeapPage format (as written by
+     * {@link HeapFileEncoder}) to the end of this file. The pages are copied
+     * straight to disk, bypassing the buffer pool and
+     * {@link HeapPage#insertTuple}. They are copied in batches of
+     * APPEND_BATCH_PAGES, and each batch is described by a single
+     * BULK_APPEND record that is forced to the log before the batch is
+     * written. Pages with no tuples on them are skipped.
+     *
+     * @param tid
+     *            the transaction doing the append
+     * @param pageFile
+     *            the file holding the pages to append
+     * @return the number of tuples appended
+     * @throws DbException
+     *             if pageFile is not a whole number of pages long
+     * @see LogFile#logBulkAppend
+     */
+    public int appendPageFile(TransactionId tid, File pageFile)
+            throws DbException, IOException {
+        beginAccess();
+        try {
+            return appendPages(tid, pageFile);
+        } finally {
+            endAccess();
+        }
+    }
+
+    private synchronized int appendPages(TransactionId tid, File pageFile)
+            throws DbException, IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (pageFile.length() % pageSize != 0) {
+            throw new DbException("Page file is not a whole number of pages long.");
+        }
+        int slots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+
+        byte[] batch = new byte[APPEND_BATCH_PAGES * pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(batch);
+        int tuples = 0;
+        try (FileInputStream in = new FileInputStream(pageFile);
+             RandomAccessFile hf_raf = new RandomAccessFile(file, "rw")) {
+            FileChannel src = in.getChannel();
+            FileChannel dst = hf_raf.getChannel();
+            boolean eof = false;
+            while (!eof) {
+                buf.clear();
+                while (buf.hasRemaining() && !eof) {
+                    eof = src.read(buf) < 0;
+                }
+                int pages = buf.position() / pageSize;
+
+                //squeeze out empty pages, counting tuples from the header bitmaps
+                int kept = 0;
+                for (int p = 0; p < pages; p++) {
+                    int n = 0;
+                    for (int h = 0; h < headerBytes; h++) {
+                        n += Integer.bitCount(batch[p * pageSize + h] & 0xFF);
+                    }
+                    if (n == 0)
+                        continue;
+                    if (kept != p)
+                        System.arraycopy(batch, p * pageSize, batch, kept * pageSize, pageSize);
+                    kept++;
+                    tuples += n;
+                }
+                if (kept == 0)
+                    continue;
+
+                int firstPage = this.numPages();
+                Database.getLogFile().logBulkAppend(tid, this.getId(), firstPage, kept);
+                ByteBuffer out = ByteBuffer.wrap(batch, 0, kept * pageSize);
+                long pos = (long) firstPage * pageSize;
+                while (out.hasRemaining()) {
+                    pos += dst.write(out, pos);
+                }
+            }
+            dst.force(false);
+        }
+        return tuples;
+    }
+
+    /**
+     * Cuts trailing pages that hold no tuples off the end of this file. The
+     * first page is always kept. Removed pages are discarded from the buffer
+     * pool before the file is shortened so that they cannot be handed out
+     * again. The caller must hold the file between {@link #beginVacuum} and
+     * {@link #endVacuum}, so that no scan is past the new end of the file.
+     *
+     * @param tid
+     *            the transaction doing the truncation
+     * @return the number of pages removed
+     * @see HeapFileVacuum
+     */
+    public int truncateEmptyTail(TransactionId tid) throws DbException,
+            TransactionAbortedException, IOException {
+        int oldPages = this.numPages();
+        int newPages = oldPages;
+        while (newPages > 1) {
+            HeapPageId pid = new HeapPageId(this.getId(), newPages - 1);
+            HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (hp.getNumNESlots() > 0)
+                break;
+            newPages--;
+        }
+        if (newPages == oldPages)
+            return 0;
+
+        for (int i = newPages; i < oldPages; i++)
+            Database.getBufferPool().discardPage(new HeapPageId(this.getId(), i));
+        try (RandomAccessFile hf_raf = new RandomAccessFile(file, "rw")) {
+            hf_raf.setLength((long) newPages * BufferPool.getPageSize());
+        }
+        return oldPages - newPages;
     }
 
     // see DbFile.java for javadocs
@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -145,6 +154,20 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
+            else   if (typeAr[fieldNo] == Type.LONG_TYPE) {
+                try {
+                    pageStream.writeLong(Long.parseLong(s.trim()));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
+            else   if (typeAr[fieldNo] == Type.DOUBLE_TYPE) {
+                try {
+                    pageStream.writeDouble(Double.parseDouble(s.trim()));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
@@ -223,4 +246,264 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Bytes of input text handed to one task by {@link #convertParallel}. */
+  static final int CHUNK_BYTES = 8 * 1024 * 1024;
+
+   /** Convert the specified input text file into a binary page file using
+    * several threads. <br>
+    * The input has the same format as for {@link #convert(File, File, int,
+    * int, Type[], char)}. It is cut into chunks of about CHUNK_BYTES at line
+    * boundaries; each chunk is parsed and encoded straight into a ByteBuffer
+    * of whole pages by a worker thread, and the encoded chunks are appended
+    * to the output file in input order with large FileChannel writes. At
+    * most 2 * numThreads chunks are held in memory at once, so inputs much
+    * larger than the heap can be converted.
+    * <p>
+    * Every chunk starts on a fresh page, so the last page of each chunk may
+    * be partly empty.
+    *
+    * @see HeapPage
+    * @see HeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character between fields on a line
+    * @param numThreads the number of worker threads to parse with
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int numThreads)
+      throws IOException {
+      if (numThreads < 1)
+          throw new IllegalArgumentException("need at least one thread");
+
+      final PageLayout layout = new PageLayout(npagebytes, numFields, typeAr, (byte) fieldSeparator);
+      final File in = inFile;
+      ArrayList<long[]> chunks = splitAtLines(inFile, CHUNK_BYTES);
+
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      ArrayDeque<Future<ByteBuffer>> inFlight = new ArrayDeque<Future<ByteBuffer>>();
+      FileOutputStream os = new FileOutputStream(outFile);
+      FileChannel out = os.getChannel();
+      long written = 0;
+      try {
+          for (final long[] chunk : chunks) {
+              if (inFlight.size() >= 2 * numThreads)
+                  written += writeFully(out, await(inFlight.poll()));
+              inFlight.add(pool.submit(new Callable<ByteBuffer>() {
+                  public ByteBuffer call() throws IOException {
+                      return encodeChunk(in, chunk[0], chunk[1], layout);
+                  }
+              }));
+          }
+          while (!inFlight.isEmpty())
+              written += writeFully(out, await(inFlight.poll()));
+
+          // like convert(), an empty input still produces one empty page
+          if (written == 0)
+              writeFully(out, ByteBuffer.allocate(npagebytes));
+      } finally {
+          pool.shutdownNow();
+          out.close();
+          os.close();
+      }
+  }
+
+  /** Page geometry and parsing parameters shared by the encoding tasks. */
+  private static class PageLayout {
+      final int npagebytes;
+      final int numFields;
+      final Type[] typeAr;
+      final byte fieldSeparator;
+      final int nrecbytes;
+      final int nrecords;
+      final int nheaderbytes;
+
+      PageLayout(int npagebytes, int numFields, Type[] typeAr, byte fieldSeparator) {
+          this.npagebytes = npagebytes;
+          this.numFields = numFields;
+          this.typeAr = typeAr;
+          this.fieldSeparator = fieldSeparator;
+          int recbytes = 0;
+          for (int i = 0; i < numFields; i++)
+              recbytes += typeAr[i].getLen();
+          this.nrecbytes = recbytes;
+          this.nrecords = (npagebytes * 8) / (recbytes * 8 + 1);
+          this.nheaderbytes = (nrecords + 7) / 8;
+      }
+  }
+
+  /**
+   * Cut a file into [start, end) byte ranges of roughly chunkBytes each,
+   * moving every cut forward to just past the next newline.
+   */
+  private static ArrayList<long[]> splitAtLines(File f, int chunkBytes) throws IOException {
+      ArrayList<long[]> chunks = new ArrayList<long[]>();
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try {
+          long len = raf.length();
+          byte[] buf = new byte[4096];
+          long start = 0;
+          while (start < len) {
+              long end = Math.min(start + chunkBytes, len);
+              raf.seek(end);
+              boolean found = false;
+              while (!found && end < len) {
+                  int n = raf.read(buf);
+                  if (n < 0)
+                      break;
+                  for (int i = 0; i < n; i++) {
+                      if (buf[i] == '\n') {
+                          end += i + 1;
+                          found = true;
+                          break;
+                      }
+                  }
+                  if (!found)
+                      end += n;
+              }
+              chunks.add(new long[] { start, Math.min(end, len) });
+              start = end;
+          }
+      } finally {
+          raf.close();
+      }
+      return chunks;
+  }
+
+  /** Read [start, end) of the input and encode its lines into whole pages. */
+  private static ByteBuffer encodeChunk(File inFile, long start, long end,
+                                        PageLayout l) throws IOException {
+      byte[] b = new byte[(int) (end - start)];
+      ByteBuffer src = ByteBuffer.wrap(b);
+      FileInputStream fis = new FileInputStream(inFile);
+      try {
+          FileChannel ch = fis.getChannel();
+          while (src.hasRemaining() && ch.read(src, start + src.position()) >= 0)
+              ;
+      } finally {
+          fis.close();
+      }
+
+      // each line is at most one record, which bounds the number of pages
+      int lines = 1;
+      for (int i = 0; i < b.length; i++)
+          if (b[i] == '\n')
+              lines++;
+      ByteBuffer pages = ByteBuffer.allocate(((lines + l.nrecords - 1) / l.nrecords) * l.npagebytes);
+
+      int page = 0;
+      int rec = 0;
+      int pos = 0;
+      while (pos < b.length) {
+          int eol = pos;
+          while (eol < b.length && b[eol] != '\n')
+              eol++;
+          int next = eol + 1;
+          // ignore Windows/Notepad special line endings and blank lines
+          while (eol > pos && b[eol - 1] == '\r')
+              eol--;
+          if (eol == pos) {
+              pos = next;
+              continue;
+          }
+
+          int pageStart = page * l.npagebytes;
+          int off = pageStart + l.nheaderbytes + rec * l.nrecbytes;
+          int fieldStart = pos;
+          for (int fieldNo = 0; fieldNo < l.numFields && fieldStart <= eol; fieldNo++) {
+              int fieldEnd = fieldStart;
+              while (fieldEnd < eol && b[fieldEnd] != l.fieldSeparator)
+                  fieldEnd++;
+              encodeField(b, fieldStart, fieldEnd, l.typeAr[fieldNo], pages, off);
+              off += l.typeAr[fieldNo].getLen();
+              fieldStart = fieldEnd + 1;
+          }
+          pages.put(pageStart + rec / 8, (byte) (pages.get(pageStart + rec / 8) | (1 << (rec % 8))));
+
+          if (++rec == l.nrecords) {
+              page++;
+              rec = 0;
+          }
+          pos = next;
+      }
+      if (rec > 0)
+          page++;
+
+      pages.limit(page * l.npagebytes);
+      return pages;
+  }
+
+  /**
+   * Write one field at the given offset of the page buffer. Fields the
+   * buffer starts out with (zeroes) are left alone for empty strings and
+   * malformed integers.
+   */
+  private static void encodeField(byte[] b, int from, int to, Type type,
+                                  ByteBuffer dst, int off) {
+      while (from < to && b[from] <= ' ')
+          from++;
+      while (to > from && b[to - 1] <= ' ')
+          to--;
+
+      if (type == Type.INT_TYPE) {
+          long v = 0;
+          boolean neg = false;
+          int i = from;
+          if (i < to && (b[i] == '-' || b[i] == '+'))
+              neg = b[i++] == '-';
+          boolean ok = i < to;
+          for (; ok && i < to; i++) {
+              int d = b[i] - '0';
+              if (d < 0 || d > 9 || v > Integer.MAX_VALUE + 1L)
+                  ok = false;
+              else
+                  v = v * 10 + d;
+          }
+          if (neg)
+              v = -v;
+          if (!ok || v > Integer.MAX_VALUE || v < Integer.MIN_VALUE) {
+              System.out.println("BAD LINE : " + new String(b, from, to - from));
+              return;
+          }
+          dst.putInt(off, (int) v);
+      } else if (type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE) {
+          String text = new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+          try {
+              if (type == Type.LONG_TYPE)
+                  dst.putLong(off, Long.parseLong(text));
+              else
+                  dst.putDouble(off, Double.parseDouble(text));
+          } catch (NumberFormatException e) {
+              System.out.println("BAD LINE : " + text);
+          }
+      } else if (type == Type.STRING_TYPE) {
+          int len = Math.min(to - from, Type.STRING_LEN);
+          dst.putInt(off, len);
+          for (int i = 0; i < len; i++)
+              dst.put(off + 4 + i, b[from + i]);
+      }
+  }
+
+  private static ByteBuffer await(Future<ByteBuffer> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new IOException("interrupted while encoding", e);
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new IOException(e.getCause());
+      }
+  }
+
+  private static long writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+      long n = buf.remaining();
+      while (buf.hasRemaining())
+          out.write(buf);
+      return n;
+  }
 }
@@ -10,6 +10,7 @@ class HeapFileIterator extends AbstractDbFileIterator {
     TransactionId tid;
     int curr_pgNo;
     Iterator<Tuple> tupleIter;
+    boolean accessing; // between heapFile.beginAccess and endAccess
 
     public HeapFileIterator(HeapFile hf, TransactionId tid) {            
         heapFile = hf;
@@ -17,13 +18,42 @@ class HeapFileIterator extends AbstractDbFileIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        if (!accessing) {
+            // keep a vacuum from moving tuples while we scan
+            heapFile.beginAccess();
+            accessing = true;
+        }
         curr_pgNo = -1;
     }
 
     // from AbstractDbFileIterator
     @Override
     protected Tuple readNext() throws TransactionAbortedException, DbException {
-        
+        if (!toNonEmptyPage())
+            return null;
+        return tupleIter.next();
+    }
+
+    /**
+     * Adds the next tuples of the file to batch until it is full or the file
+     * runs out. The tuples are taken off each page by its iterator in one
+     * go, rather than through readNext() one at a time.
+     */
+    void fillBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        Tuple ahead = takeReadAhead(); // read by a hasNext() before this call
+        if (ahead != null)
+            batch.add(ahead);
+        while (!batch.isFull() && toNonEmptyPage())
+            ((HeapPageIterator) tupleIter).fill(batch);
+    }
+
+    /**
+     * Makes tupleIter an iterator with tuples left, moving on to the next
+     * page that has any if the current one has none.
+     *
+     * @return false if the file has no tuples left
+     */
+    private boolean toNonEmptyPage() throws TransactionAbortedException, DbException {
        //if current tupleIter no longer has a tuple to read next
        if (tupleIter != null && !tupleIter.hasNext()) {    
            tupleIter = null;
@@ -50,13 +80,13 @@ class HeapFileIterator extends AbstractDbFileIterator {
             // otherwise, we can leave the while loop b/c we found the next page with a tupleIter
         }
         
-        // if we never found one, then return null
-        if (tupleIter == null)
-                return null;
+        // if we never found one, then there are no tuples left
+        if (tupleIter == null) {
+                endAccess(); // done with the pages
+                return false;
+        }
 
-        
-        // return the next tuple that we know we have
-        return tupleIter.next();
+        return true;
     }
 
     /**
@@ -74,7 +104,14 @@ class HeapFileIterator extends AbstractDbFileIterator {
         super.close(); // from AbstractDbFileIterator
         tupleIter = null;
         curr_pgNo = Integer.MIN_VALUE;
+        endAccess();
+    }
 
+    private void endAccess() {
+        if (accessing) {
+            heapFile.endAccess();
+            accessing = false;
+        }
     }
 }
 
@@ -0,0 +1,270 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * HeapFileVacuum compacts a HeapFile in place. Live tuples are moved from the
+ * last non-empty pages of the file into free slots on earlier pages, and the
+ * trailing pages that end up empty are cut off the file, so that later scans
+ * read fewer pages.
+ * <p>
+ * Work is done in small increments ({@link #step}), each running as its own
+ * transaction that moves at most <code>batchSize</code> tuples. A vacuum can
+ * either be driven to completion synchronously ({@link #vacuum}) or run on a
+ * background daemon thread ({@link #start}) that pauses between increments so
+ * that foreground queries get a chance at the buffer pool.
+ * <p>
+ * Scans, inserts and deletes on the file could lose or repeat tuples if
+ * tuples moved, or pages went away, under them. So an increment only runs
+ * while nobody is using the file, through {@link HeapFile#beginVacuum}, and
+ * scans and writes that start during an increment wait for it to end. A
+ * background vacuum does not wait for the file to become free; it skips the
+ * increment and tries again after its pause, so foreground queries wait for
+ * at most one increment of batchSize tuples.
+ * <p>
+ * Moved tuples keep their contents but get a new RecordId, which is set by
+ * {@link HeapPage#insertTuple}.
+ *
+ * @see HeapFile#truncateEmptyTail
+ */
+public class HeapFileVacuum implements Runnable {
+
+    /** Default number of tuples moved per increment. */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /** Default pause between increments of a background vacuum. */
+    public static final long DEFAULT_PAUSE_MILLIS = 10;
+
+    private final HeapFile file;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    // lowest page number that may still have a free slot
+    private int freeHint = 0;
+    private int tuplesMoved = 0;
+    private int pagesTruncated = 0;
+
+    private volatile boolean stopped = false;
+    private Thread worker = null;
+
+    /**
+     * Creates a vacuum over the given file with the default batch size and
+     * pause.
+     *
+     * @param file
+     *            the heap file to compact
+     */
+    public HeapFileVacuum(HeapFile file) {
+        this(file, DEFAULT_BATCH_SIZE, DEFAULT_PAUSE_MILLIS);
+    }
+
+    /**
+     * Creates a vacuum over the given file.
+     *
+     * @param file
+     *            the heap file to compact
+     * @param batchSize
+     *            the maximum number of tuples moved by one increment
+     * @param pauseMillis
+     *            how long a background vacuum sleeps between increments
+     */
+    public HeapFileVacuum(HeapFile file, int batchSize, long pauseMillis) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive");
+        this.file = file;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * @return the total number of tuples moved so far
+     */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * @return the total number of pages cut off the end of the file so far
+     */
+    public int getPagesTruncated() {
+        return pagesTruncated;
+    }
+
+    /**
+     * Runs one increment of the vacuum in its own transaction: moves up to
+     * batchSize tuples towards the head of the file, commits, and then
+     * truncates any empty pages left at the end of the file. Waits for open
+     * scans and running writes on the file to end first, so it must not be
+     * called by a thread that has a scan of the file open.
+     *
+     * @return true if there is more work left to do
+     */
+    public boolean step() throws DbException, TransactionAbortedException,
+            IOException {
+        try {
+            file.beginVacuum();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for scans to end");
+        }
+        try {
+            return increment();
+        } finally {
+            file.endVacuum();
+        }
+    }
+
+    /**
+     * The body of {@link #step}, run while no one else uses the file.
+     */
+    private boolean increment() throws DbException, TransactionAbortedException,
+            IOException {
+        Transaction t = new Transaction();
+        t.start();
+        boolean more;
+        try {
+            more = compact(t.getId());
+        } catch (DbException e) {
+            t.abort();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            throw e;
+        }
+        t.commit();
+
+        // the moved tuples are on disk now, so the empty tail can go
+        t = new Transaction();
+        t.start();
+        try {
+            pagesTruncated += file.truncateEmptyTail(t.getId());
+        } catch (DbException e) {
+            t.abort();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            throw e;
+        }
+        t.commit();
+        return more;
+    }
+
+    /**
+     * Runs increments until the file is fully compacted.
+     */
+    public void vacuum() throws DbException, TransactionAbortedException,
+            IOException {
+        freeHint = 0;
+        while (!stopped && step())
+            ;
+    }
+
+    /**
+     * Starts vacuuming on a background daemon thread.
+     */
+    public synchronized void start() {
+        if (worker != null)
+            throw new IllegalStateException("vacuum already started");
+        stopped = false;
+        worker = new Thread(this, "vacuum-" + file.getId());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Asks a background vacuum to stop after its current increment and waits
+     * for it to finish.
+     */
+    public void stop() throws InterruptedException {
+        Thread w;
+        synchronized (this) {
+            stopped = true;
+            w = worker;
+            worker = null;
+        }
+        if (w != null)
+            w.join();
+    }
+
+    public void run() {
+        freeHint = 0;
+        try {
+            while (!stopped) {
+                if (!file.tryBeginVacuum()) { // the file is in use; try again later
+                    Thread.sleep(Math.max(pauseMillis, 1));
+                    continue;
+                }
+                boolean more;
+                try {
+                    more = increment();
+                } finally {
+                    file.endVacuum();
+                }
+                if (!more)
+                    break;
+                if (pauseMillis > 0)
+                    Thread.sleep(pauseMillis);
+            }
+        } catch (InterruptedException e) {
+            // asked to stop
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves up to batchSize tuples from the last non-empty page into the
+     * first pages with free slots.
+     *
+     * @return true if the head and tail have not met yet
+     */
+    private boolean compact(TransactionId tid) throws DbException,
+            TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int dst = freeHint;
+        int src = file.numPages() - 1;
+        int moved = 0;
+
+        HeapPage dstPage = null;
+        HeapPage srcPage = null;
+        int srcSlot = 0;
+        while (moved < batchSize && dst < src) {
+            if (dstPage == null) {
+                dstPage = (HeapPage) bp.getPage(tid,
+                        new HeapPageId(file.getId(), dst), Permissions.READ_WRITE);
+                if (dstPage.getNumEmptySlots() == 0) {
+                    dstPage = null;
+                    dst++;
+                    continue;
+                }
+            }
+            if (srcPage == null) {
+                srcPage = (HeapPage) bp.getPage(tid,
+                        new HeapPageId(file.getId(), src), Permissions.READ_WRITE);
+                srcSlot = 0;
+            }
+            while (srcSlot < srcPage.numSlots && !srcPage.isSlotUsed(srcSlot))
+                srcSlot++;
+            if (srcSlot == srcPage.numSlots) {
+                srcPage = null;
+                src--;
+                continue;
+            }
+
+            Tuple t = srcPage.tuples[srcSlot];
+            srcPage.deleteTuple(t);
+            dstPage.insertTuple(t);
+            srcPage.markDirty(true, tid);
+            dstPage.markDirty(true, tid);
+            moved++;
+
+            if (dstPage.getNumEmptySlots() == 0) {
+                dstPage = null;
+                dst++;
+            }
+        }
+
+        tuplesMoved += moved;
+        freeHint = dst;
+        return dst < src;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,6 +19,8 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    // shared by the CompactTuples read from this page
+    private final CompactTuple.Layout layout;
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
@@ -44,22 +47,22 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer buf = ByteBuffer.wrap(data);
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        System.arraycopy(data, 0, header, 0, header.length);
         
         tuples = new Tuple[numSlots];
+        this.layout = new CompactTuple.Layout(td);
         try{
             // allocate and read the actual records of this page
+            int tupleSize = td.getSize();
             for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
+                tuples[i] = readNextTuple(buf, header.length + i * tupleSize, i);
         }catch(NoSuchElementException e){
             e.printStackTrace();
         }
-        dis.close();
 
         setBeforeImage();
         
@@ -115,31 +118,20 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Suck up the tuple in slot slotId, which starts at offset in buf.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private Tuple readNextTuple(ByteBuffer buf, int offset, int slotId) throws NoSuchElementException {
+        // if associated bit is not set, there is no tuple to read: return null.
+        if (!isSlotUsed(slotId))
             return null;
-        }
 
         // read fields in the tuple
-        Tuple t = new Tuple(td);
+        CompactTuple t = new CompactTuple(td, layout);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            t.readFields(buf, offset);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
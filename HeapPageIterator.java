@@ -1,30 +1,62 @@
 package simpledb;
 import java.util.*;
 
+/**
+ * Iterates over the used slots of a HeapPage in slot order. The header bitmap
+ * is read a 64-slot word at a time and used slots are found with
+ * Long.numberOfTrailingZeros, so empty slots anywhere on the page (for
+ * example those left behind by deletes) are skipped without being visited.
+ */
 public class HeapPageIterator implements Iterator<Tuple> {
 
     private HeapPage heapPage; 
-    private int index;
-    private int size;
+    private int numWords;
+    private int wordIdx; // index of the word being walked
+    private long word; // used slots of that word not returned yet
 
 
     public HeapPageIterator(HeapPage heapPage) {
         this.heapPage = heapPage;
-        this.index = 0;
-        this.size = heapPage.getNumNESlots();
+        this.numWords = SlotBitmap.numWords(heapPage.numSlots);
+        this.wordIdx = 0;
+        this.word = numWords > 0 ? SlotBitmap.word(heapPage.header, 0) : 0;
     }
 
     public boolean hasNext() {
-        return (this.index < this.size) && (heapPage.tuples[this.index] != null);
+        while (true) {
+            while (this.word == 0) {
+                if (++this.wordIdx >= this.numWords)
+                    return false;
+                this.word = SlotBitmap.word(heapPage.header, this.wordIdx);
+            }
+            int slot = (this.wordIdx << 6) + Long.numberOfTrailingZeros(this.word);
+            if (slot < heapPage.numSlots && heapPage.tuples[slot] != null)
+                return true;
+            this.word &= this.word - 1; // stale or out-of-range bit, drop it
+        }
     }
 
     public Tuple next() {
-        return heapPage.tuples[this.index++];
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int slot = (this.wordIdx << 6) + Long.numberOfTrailingZeros(this.word);
+        this.word &= this.word - 1;
+        return heapPage.tuples[slot];
+    }
+
+    /**
+     * Adds the tuples not returned yet to batch, in slot order, until the
+     * page runs out or the batch is full.
+     */
+    void fill(TupleBatch batch) {
+        while (!batch.isFull() && hasNext()) {
+            int slot = (this.wordIdx << 6) + Long.numberOfTrailingZeros(this.word);
+            this.word &= this.word - 1;
+            batch.add(heapPage.tuples[slot]);
+        }
     }
 
     public void remove() throws UnsupportedOperationException {
         throw new UnsupportedOperationException();
     }
 }
-
-
@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The Join operator implements the relational join operation.
+ * <p>
+ * This one is an index nested-loops join. child2 must be a SeqScan of a
+ * BTreeFile keyed on the join field, possibly below Filters (see
+ * {@link #isIndexed}); instead of scanning it for every child1 tuple, the
+ * B+ tree is probed through {@link BTreeFile#indexIterator} with an
+ * IndexPredicate on the child1 tuple's key, and the Filters are applied to
+ * the tuples found. child1 is read {@link #BATCH_SIZE} tuples at a time and
+ * each batch is sorted on the join field, so that consecutive probes walk
+ * down to the same or neighbouring leaf pages while they are still in the
+ * buffer pool.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of child1 tuples sorted and probed together. */
+    public static final int BATCH_SIZE = 1000;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private BTreeFile index;
+    private TransactionId tid;
+    private Predicate.Op probeOp; // the join predicate seen from child2
+    private ArrayList<Predicate> innerFilters;
+    private transient TupleRing ring; // output tuples in reuse mode
+
+    private transient ArrayList<Tuple> batch;
+    private transient int batchPos;
+    private transient Tuple leftTuple;
+    private transient DbFileIterator probe; // child2 tuples matching leftTuple
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The right(inner) relation, which must be indexed on the join
+     *            field as described by {@link #isIndexed}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1,
+            OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS
+                || p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("cannot probe an index on "
+                    + p.getOperator());
+        this.pred = p;
+        switch (p.getOperator()) {
+        case LESS_THAN:
+            probeOp = Predicate.Op.GREATER_THAN;
+            break;
+        case LESS_THAN_OR_EQ:
+            probeOp = Predicate.Op.GREATER_THAN_OR_EQ;
+            break;
+        case GREATER_THAN:
+            probeOp = Predicate.Op.LESS_THAN;
+            break;
+        case GREATER_THAN_OR_EQ:
+            probeOp = Predicate.Op.LESS_THAN_OR_EQ;
+            break;
+        default:
+            probeOp = p.getOperator();
+        }
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return the scan at the bottom of it if that is a SeqScan of a
+     *         BTreeFile keyed on field, with only Filters above it, and null
+     *         otherwise
+     */
+    private static SeqScan indexedScan(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (!(it instanceof SeqScan))
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                ((SeqScan) it).getTableId());
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == field)
+            return (SeqScan) it;
+        return null;
+    }
+
+    /**
+     * @return true if it can be the inner side of an index nested-loops join
+     *         on the given field: a SeqScan of a BTreeFile keyed on that
+     *         field, possibly below Filters
+     */
+    public static boolean isIndexed(OpIterator it, int field) {
+        return indexedScan(it, field) != null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new ArrayList<Tuple>();
+        batchPos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        child1.close();
+        batch = null;
+        leftTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        batch.clear();
+        batchPos = 0;
+        leftTuple = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    /**
+     * Reads the next batch of child1 tuples and sorts it on the join field.
+     *
+     * @return false if child1 has no tuples left
+     */
+    private boolean readBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        batchPos = 0;
+        while (batch.size() < BATCH_SIZE && child1.hasNext())
+            batch.add(child1.next().detach());
+        Collections.sort(batch, new TupleComparator(pred.getField1(), true));
+        return !batch.isEmpty();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the joining child1 and
+     * child2 tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    Tuple r = probe.next();
+                    if (passesFilters(r))
+                        return joinTuples(leftTuple, r);
+                }
+                closeProbe();
+            }
+            if (batchPos == batch.size() && !readBatch())
+                return null;
+            leftTuple = batch.get(batchPos++);
+            probe = index.indexIterator(tid, new IndexPredicate(probeOp,
+                    leftTuple.getField(pred.getField1())));
+            probe.open();
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (int i = 0; i < innerFilters.size(); i++) {
+            if (!innerFilters.get(i).filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple joinTuples(Tuple l, Tuple r) {
+        int n1 = l.getTupleDesc().numFields();
+        int n2 = r.getTupleDesc().numFields();
+        Tuple t;
+        if (getReuseTuples()) { // fill a recycled tuple instead of allocating one
+            if (ring == null)
+                ring = new TupleRing(comboTD, TupleRing.TUPLE_SIZE);
+            t = ring.next();
+        } else
+            t = new Tuple(comboTD);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, l.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, r.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        SeqScan scan = indexedScan(children[1], pred.getField2());
+        if (scan == null)
+            throw new IllegalArgumentException(
+                    "inner relation is not indexed on the join field");
+        child1 = children[0];
+        child2 = children[1];
+        index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        tid = scan.getTransactionId();
+        innerFilters = new ArrayList<Predicate>();
+        for (OpIterator it = child2; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+            innerFilters.add(((Filter) it).getPredicate());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -83,7 +83,7 @@ public class Insert extends Operator {
       // while we have tuples to insert
       while (this.child.hasNext()){
         try {
-            Database.getBufferPool().insertTuple(this.t, this.tableId, this.child.next());
+            Database.getBufferPool().insertTuple(this.t, this.tableId, this.child.next().detach()); // pages keep the tuple
         }
         catch (IOException e) {
           throw new DbException("IO exception while inserting tuple");
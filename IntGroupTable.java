@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the distinct values of an INT_TYPE group-by field.
+ * <p>
+ * Each distinct key gets a group number, 0, 1, 2, ... in the order the keys
+ * are first seen, so that an aggregator can keep the state of its groups in
+ * flat primitive arrays indexed by group. Keys are found in an
+ * open-addressing (linear probing) int[], so looking up a key neither boxes
+ * it nor allocates.
+ */
+final class IntGroupTable {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_SLOTS = 16;
+
+    // open-addressing slots: the key of a slot and its group, or EMPTY
+    private int[] keys;
+    private int[] groups;
+    private int mask;
+
+    // the key of each group
+    private int[] groupKeys;
+    private int size;
+
+    /**
+     * Creates an empty table sized for about expectedGroups groups.
+     */
+    IntGroupTable(int expectedGroups) {
+        int slots = MIN_SLOTS;
+        while (slots < expectedGroups * 2)
+            slots <<= 1;
+        allocateSlots(slots);
+        groupKeys = new int[Math.max(expectedGroups, MIN_SLOTS)];
+    }
+
+    private void allocateSlots(int slots) {
+        keys = new int[slots];
+        groups = new int[slots];
+        Arrays.fill(groups, EMPTY);
+        mask = slots - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group of key, or -1 if key has not been seen
+     */
+    int find(int key) {
+        int s = hash(key) & mask;
+        while (groups[s] != EMPTY) {
+            if (keys[s] == key)
+                return groups[s];
+            s = (s + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return the group of key; a key not seen before gets the next group
+     *         number, which is size() - 1 afterwards
+     */
+    int groupOf(int key) {
+        int s = hash(key) & mask;
+        while (groups[s] != EMPTY) {
+            if (keys[s] == key)
+                return groups[s];
+            s = (s + 1) & mask;
+        }
+        if (size == groupKeys.length)
+            groupKeys = Arrays.copyOf(groupKeys, size * 2);
+        keys[s] = key;
+        groups[s] = size;
+        groupKeys[size] = key;
+        if (++size * 2 > keys.length)
+            grow();
+        return size - 1;
+    }
+
+    /**
+     * Doubles the number of slots.
+     */
+    private void grow() {
+        allocateSlots(keys.length * 2);
+        for (int g = 0; g < size; g++) {
+            int s = hash(groupKeys[g]) & mask;
+            while (groups[s] != EMPTY)
+                s = (s + 1) & mask;
+            keys[s] = groupKeys[g];
+            groups[s] = g;
+        }
+    }
+
+    /**
+     * @return the key of a group
+     */
+    int key(int group) {
+        return groupKeys[group];
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all groups, keeping the allocated arrays.
+     */
+    void clear() {
+        Arrays.fill(groups, EMPTY);
+        size = 0;
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * The build table of a hash join on an INT_TYPE field.
+ * <p>
+ * Keys are kept in an open-addressing (linear probing) int[] with one slot per
+ * distinct key. Each slot points to the first of its rows, and rows with the
+ * same key are chained through an int[] of row indexes, so the tuples
+ * themselves sit in one flat array. Looking up a key and walking its matches
+ * neither boxes the key nor allocates:
+ *
+ * <pre>
+ * for (int r = table.first(key); r &gt;= 0; r = table.next(r))
+ *     use(table.get(r));
+ * </pre>
+ */
+final class IntJoinTable {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_SLOTS = 16;
+
+    // open-addressing slots: the key of a slot and its first row, or EMPTY
+    private int[] keys;
+    private int[] heads;
+    private int mask;
+    private int distinct;
+
+    // flat row store: the tuple of a row and the next row with the same key
+    private Tuple[] rows;
+    private int[] nextRow;
+    private int size;
+
+    /**
+     * Creates an empty table sized for about expectedRows rows.
+     */
+    IntJoinTable(int expectedRows) {
+        int slots = MIN_SLOTS;
+        while (slots < expectedRows * 2)
+            slots <<= 1;
+        allocateSlots(slots);
+        rows = new Tuple[Math.max(expectedRows, MIN_SLOTS)];
+        nextRow = new int[rows.length];
+    }
+
+    private void allocateSlots(int slots) {
+        keys = new int[slots];
+        heads = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        mask = slots - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding key, or the empty slot where it would go
+     */
+    private int slotOf(int key) {
+        int s = hash(key) & mask;
+        while (heads[s] != EMPTY && keys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /**
+     * Adds row t with join key key.
+     */
+    void add(int key, Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            nextRow = Arrays.copyOf(nextRow, size * 2);
+        }
+        int s = slotOf(key);
+        if (heads[s] == EMPTY) {
+            keys[s] = key;
+            nextRow[size] = EMPTY;
+            distinct++;
+        } else {
+            nextRow[size] = heads[s];
+        }
+        heads[s] = size;
+        rows[size++] = t;
+        if (distinct * 2 > keys.length)
+            grow();
+    }
+
+    /**
+     * Doubles the number of slots, keeping every key's chain of rows.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        allocateSlots(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] == EMPTY)
+                continue;
+            int s = slotOf(oldKeys[i]);
+            keys[s] = oldKeys[i];
+            heads[s] = oldHeads[i];
+        }
+    }
+
+    /**
+     * @return the index of the first row with the given key, or -1 if there
+     *         is none
+     */
+    int first(int key) {
+        return heads[slotOf(key)];
+    }
+
+    /**
+     * @return the index of the next row with the same key as row, or -1
+     */
+    int next(int row) {
+        return nextRow[row];
+    }
+
+    /**
+     * @return the tuple of a row; rows are numbered 0 to size() - 1 in the
+     *         order they were added
+     */
+    Tuple get(int row) {
+        return rows[row];
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all rows, keeping the allocated arrays.
+     */
+    void clear() {
+        Arrays.fill(heads, EMPTY);
+        Arrays.fill(rows, 0, size, null);
+        distinct = 0;
+        size = 0;
+    }
+}
@@ -3,9 +3,38 @@ import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered in the order they are first seen, and the running
+ * value and count of every group live in long[] arrays indexed by group
+ * number, so sums do not overflow while they are accumulated and merging a
+ * tuple into an existing group allocates nothing. INT_TYPE group-by values
+ * are numbered by an {@link IntGroupTable}; other group-by types go through
+ * a HashMap from Field to group number.
+ * <p>
+ * SUM produces a LongField; the other aggregates fit in an IntField.
  */
 public class IntegerAggregator implements Aggregator {
 
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private int gbField;
+    private Type gbFieldType;
+    private int aField;
+    private Op op;
+
+    // group numbering: intGroups for INT_TYPE group-by fields, otherwise
+    // groupIds and groupValues
+    private IntGroupTable intGroups;
+    private HashMap<Field, Integer> groupIds;
+    private ArrayList<Field> groupValues;
+    private int numGroups;
+
+    // per group: the running MIN, MAX or SUM, and the number of tuples
+    private long[] values;
+    private long[] counts;
+
     /**
      * Aggregate constructor
      *
@@ -20,21 +49,50 @@ public class IntegerAggregator implements Aggregator {
      * @param what
      *            the aggregation operator
      */
-
-    private int gbField;
-    private Type gbFieldType;
-    private int aField;
-    private Op op;
-    private HashMap<Field,Integer> aggregate;
-    private HashMap<Field,Integer> count;
-
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-      gbField = gbfield;
-    	gbFieldType = gbfieldtype;
-    	aField = afield;
-    	op = what;
-    	aggregate = new HashMap<Field, Integer>();
-    	count = new HashMap<Field, Integer>();
+        gbField = gbfield;
+        gbFieldType = gbfieldtype;
+        aField = afield;
+        op = what;
+        if (gbField != Aggregator.NO_GROUPING && gbFieldType == Type.INT_TYPE) {
+            intGroups = new IntGroupTable(INITIAL_GROUPS);
+        } else {
+            groupIds = new HashMap<Field, Integer>();
+            groupValues = new ArrayList<Field>();
+        }
+        values = new long[INITIAL_GROUPS];
+        counts = new long[INITIAL_GROUPS];
+    }
+
+    /**
+     * @return the number of the group tup belongs to, adding the group if it
+     *         is new
+     */
+    private int groupOf(Tuple tup) {
+        int group;
+        if (intGroups != null) {
+            group = intGroups.groupOf(tup.getInt(gbField));
+        } else {
+            // do we have a field to group by or not?
+            Field tupleGroupByField = gbField == Aggregator.NO_GROUPING ? null
+                    : tup.getField(gbField);
+            Integer id = groupIds.get(tupleGroupByField);
+            if (id != null)
+                return id;
+            group = numGroups;
+            groupIds.put(tupleGroupByField, group);
+            groupValues.add(tupleGroupByField);
+        }
+        if (group == numGroups) { // a new group
+            if (numGroups == values.length) {
+                values = Arrays.copyOf(values, numGroups * 2);
+                counts = Arrays.copyOf(counts, numGroups * 2);
+            }
+            values[group] = 0;
+            counts[group] = 0;
+            numGroups++;
+        }
+        return group;
     }
 
     /**
@@ -45,57 +103,48 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-      Field tupleGroupByField;
-
-      // do we have a field to group by or not?
-      if (gbField == Aggregator.NO_GROUPING)
-        tupleGroupByField = null;
-      else
-        tupleGroupByField = tup.getField(gbField);
-
-      // if we don't have the key in the hashMaps, create initial values in the hashMaps
-      if (!aggregate.containsKey(tupleGroupByField)){
-        int initial;
-        switch(op){
-          case MIN: initial = Integer.MAX_VALUE; break; // start with max and update as we find min
-          case MAX: initial = Integer.MIN_VALUE; break; // start with min and update as we find max
-          default: initial = 0; break; // other operators
+        merge(groupOf(tup), tup);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int group;
+        if (intGroups != null) {
+            group = intGroups.find(tup.getInt(gbField));
+        } else {
+            Integer id = groupIds.get(gbField == Aggregator.NO_GROUPING ? null
+                    : tup.getField(gbField));
+            group = id == null ? -1 : id;
+        }
+        if (group < 0)
+            return false;
+        merge(group, tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private void merge(int group, Tuple tup) {
+        long tupleValue = tup.getInt(aField);
+
+        // update the running value based on what op we are working with
+        switch (op) {
+        case MIN:
+            if (counts[group] == 0 || tupleValue < values[group])
+                values[group] = tupleValue;
+            break;
+        case MAX:
+            if (counts[group] == 0 || tupleValue > values[group])
+                values[group] = tupleValue;
+            break;
+        case SUM: case AVG:
+            values[group] += tupleValue;
+            break;
+        default: // COUNT only needs the count
+            break;
         }
-    		aggregate.put(tupleGroupByField, initial); // aggregate depends on op
-        count.put(tupleGroupByField, 0); // count is 0
-    	}
-
-      int tupleValue = ((IntField) tup.getField(aField)).getValue();
-    	int currentValue = aggregate.get(tupleGroupByField);
-    	int currentCount = count.get(tupleGroupByField);
-    	int newValue = currentValue;
-
-      // update the value to put in the aggregate hashMap based on what op we are working with
-    	switch(op){
-    		case MIN:
-          if (tupleValue < currentValue) // update
-            newValue = tupleValue;
-          else
-            newValue = currentValue;
-    			break;
-    		case MAX:
-          if (tupleValue > currentValue) // update
-            newValue = tupleValue;
-          else
-            newValue = currentValue;
-    			break;
-        case COUNT:
-          newValue = currentValue + 1;
-          break;
-    		case SUM: case AVG:
-          // update count hashMap so we can calculate sum or avg at the end
-    			count.put(tupleGroupByField, currentCount+1);
-    			newValue = tupleValue + currentValue;
-    			break;
-  			default:
-  				break;
-    	}
-    	aggregate.put(tupleGroupByField, newValue); // update aggregate hashMap
+        counts[group]++;
     }
 
     /**
@@ -106,38 +155,42 @@ public class IntegerAggregator implements Aggregator {
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
-
     public OpIterator iterator() {
-      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-
-      String[] names;
-    	Type[] types;
-    	if (gbField == Aggregator.NO_GROUPING){ // no grouping so just the aggregate value
-        types = new Type[] {Type.INT_TYPE};
-    		names = new String[] {"aggregateValue"};
-    	} else { // grouping so aggregate value per groupby field type
-        types = new Type[] {gbFieldType, Type.INT_TYPE};
-    		names = new String[] {"groupValue", "aggregateValue"};
-    	}
-    	TupleDesc td = new TupleDesc(types, names);
-
-    	Tuple tupleToAdd;
-    	for (Field group : aggregate.keySet()){
-    		int aggregateValue;
-    		if (op == Op.AVG) // if we want AVG we have to calculate it here by doing aggregate / count
-    			aggregateValue = aggregate.get(group) / count.get(group);
-    		else
-    			aggregateValue = aggregate.get(group);
-
-    		tupleToAdd = new Tuple(td);
-    		if (gbField == Aggregator.NO_GROUPING) // no grouping so just the aggregate value
-    			tupleToAdd.setField(0, new IntField(aggregateValue));
-    		else { // grouping so groupby value and aggregate value
-      		tupleToAdd.setField(0, group);
-      		tupleToAdd.setField(1, new IntField(aggregateValue));
-    		}
-    		tuples.add(tupleToAdd);
-    	}
-    	return new TupleIterator(td, tuples);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+        String[] names;
+        Type[] types;
+        Type aggregateType = Aggregate.resultType(op, Type.INT_TYPE);
+        if (gbField == Aggregator.NO_GROUPING) { // no grouping so just the aggregate value
+            types = new Type[] {aggregateType};
+            names = new String[] {"aggregateValue"};
+        } else { // grouping so aggregate value per groupby field type
+            types = new Type[] {gbFieldType, aggregateType};
+            names = new String[] {"groupValue", "aggregateValue"};
+        }
+        TupleDesc td = new TupleDesc(types, names);
+
+        for (int group = 0; group < numGroups; group++) {
+            long aggregateValue;
+            if (op == Op.AVG) // if we want AVG we have to calculate it here by doing sum / count
+                aggregateValue = values[group] / counts[group];
+            else if (op == Op.COUNT)
+                aggregateValue = counts[group];
+            else
+                aggregateValue = values[group];
+
+            Field aggregateField = aggregateType == Type.LONG_TYPE
+                    ? new LongField(aggregateValue) : new IntField((int) aggregateValue);
+            Tuple tupleToAdd = new Tuple(td);
+            if (gbField == Aggregator.NO_GROUPING) { // no grouping so just the aggregate value
+                tupleToAdd.setField(0, aggregateField);
+            } else { // grouping so groupby value and aggregate value
+                tupleToAdd.setField(0, intGroups != null
+                        ? new IntField(intGroups.key(group)) : groupValues.get(group));
+                tupleToAdd.setField(1, aggregateField);
+            }
+            tuples.add(tupleToAdd);
+        }
+        return new TupleIterator(td, tuples);
     }
 }
@@ -4,15 +4,37 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * This is a block nested-loops join: child1 is read a block of
+ * {@link #BLOCK_PAGES} pages' worth of tuples at a time (see
+ * {@link #setBlockSize}), and child2 is scanned once per block rather than
+ * once per child1 tuple. For an equality predicate the block is put in a hash
+ * table (an {@link IntJoinTable} when both fields are INT_TYPE) that each
+ * child2 tuple probes; for other predicates every child2 tuple is compared
+ * with the whole block.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
-    
+
+    /** Default size of a block of child1 tuples, in pages. */
+    public static final int BLOCK_PAGES = 16;
+
     private JoinPredicate joinPred;
     private OpIterator c1;
     private OpIterator c2;
-    private Tuple leftTuple; //for join
+    private int blockSize = -1; //tuples per block, -1 to size it from BLOCK_PAGES
+    private transient TupleRing ring; //output tuples in reuse mode
+
+    //the current block of left tuples, and its hash table for equality joins
+    private transient ArrayList<Tuple> block;
+    private transient HashMap<Field, ArrayList<Tuple>> blockMap;
+    private transient IntJoinTable blockTable;
+    private transient int blocksRead;
+    //the right tuple being joined with the block, and where its matches are
+    private transient Tuple rightTuple;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchPos;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -29,7 +51,15 @@ public class Join extends Operator {
         joinPred = p;
         c1 = child1;
         c2 = child2;
-        leftTuple = null;
+    }
+
+    /**
+     * Sets the number of child1 tuples joined per scan of child2, instead of
+     * as many as fit in {@link #BLOCK_PAGES} pages. Takes effect when the join
+     * is next opened or rewound.
+     */
+    public void setBlockSize(int tuples) {
+        this.blockSize = tuples;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -67,25 +97,125 @@ public class Join extends Operator {
         super.open();
         c1.open();
         c2.open();
+        startBlocks();
     }
 
     public void close() {
         super.close();
         c1.close();
         c2.close();
+        block = null;
+        blockMap = null;
+        blockTable = null;
+        rightTuple = null;
+        matches = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         c1.rewind();
         c2.rewind();
-        leftTuple = null;
+        startBlocks();
+    }
+
+    private void startBlocks() {
+        if (block == null)
+            block = new ArrayList<Tuple>();
+        block.clear();
+        blocksRead = 0;
+        rightTuple = null;
+        matches = null;
+    }
+
+    /**
+     * Reads the next block of child1 tuples and, for an equality predicate,
+     * hashes it on the join field. Rewinds child2 if it was scanned for an
+     * earlier block.
+     *
+     * @return false if child1 has no tuples left
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        int size = blockSize;
+        if (size <= 0)
+            size = Math.max(1, BLOCK_PAGES * BufferPool.getPageSize()
+                    / c1.getTupleDesc().getSize());
+        block.clear();
+        while (block.size() < size && c1.hasNext())
+            block.add(c1.next().detach());
+        if (block.isEmpty())
+            return false;
+
+        int f1 = joinPred.getField1();
+        if (joinPred.getOperator() == Predicate.Op.EQUALS) {
+            if (c1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE
+                    && c2.getTupleDesc().getFieldType(joinPred.getField2()) == Type.INT_TYPE) {
+                if (blockTable == null)
+                    blockTable = new IntJoinTable(block.size());
+                blockTable.clear();
+                for (int i = 0; i < block.size(); i++)
+                    blockTable.add(block.get(i).getInt(f1), block.get(i));
+            } else {
+                if (blockMap == null)
+                    blockMap = new HashMap<Field, ArrayList<Tuple>>();
+                blockMap.clear();
+                for (int i = 0; i < block.size(); i++) {
+                    Tuple t = block.get(i);
+                    ArrayList<Tuple> list = blockMap.get(t.getField(f1));
+                    if (list == null) {
+                        list = new ArrayList<Tuple>();
+                        blockMap.put(t.getField(f1), list);
+                    }
+                    list.add(t);
+                }
+            }
+        }
+        if (blocksRead++ > 0)
+            c2.rewind();
+        return true;
+    }
+
+    /**
+     * Finds where the matches of rightTuple in the current block are.
+     */
+    private void startMatches() {
+        matchPos = 0;
+        if (joinPred.getOperator() != Predicate.Op.EQUALS)
+            return;
+        if (blockTable != null)
+            matchPos = blockTable.first(rightTuple.getInt(joinPred.getField2()));
+        else
+            matches = blockMap.get(rightTuple.getField(joinPred.getField2()));
+    }
+
+    /**
+     * @return the next tuple of the current block that joins with
+     *         rightTuple, or null if there are no more
+     */
+    private Tuple nextMatch() {
+        if (joinPred.getOperator() != Predicate.Op.EQUALS) {
+            while (matchPos < block.size()) {
+                Tuple t = block.get(matchPos++);
+                if (joinPred.filter(t, rightTuple))
+                    return t;
+            }
+            return null;
+        }
+        if (blockTable != null) {
+            if (matchPos < 0)
+                return null;
+            Tuple t = blockTable.get(matchPos);
+            matchPos = blockTable.next(matchPos);
+            return t;
+        }
+        if (matches != null && matchPos < matches.size())
+            return matches.get(matchPos++);
+        return null;
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. Tuples come out a block of r1 at a time,
+     * in the order of r2 within a block.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -99,37 +229,38 @@ public class Join extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    //we will start from a left tuple, go over all right tuples, see matching fields and join
-    //once reached the end of right tuples, rewind the right tuples, go to next left tuple
+    //we will start from a block of left tuples, go over all right tuples, join each with its matches in the block
+    //once reached the end of right tuples, read the next block, which rewinds the right tuples
     //do until left tuples not finished
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	if (leftTuple == null && c1.hasNext()) {
-            leftTuple = c1.next();
-        }
-        while (leftTuple != null) {
-            while (c2.hasNext()) {
-                Tuple rightTuple = c2.next();
-                if (joinPred.filter(leftTuple, rightTuple)) {
-                	return joinTuples(leftTuple, rightTuple);
-                    //return Tuple.merge(leftTuple, rightTuple);
-                }
+        while (true) {
+            if (rightTuple != null) {
+                Tuple leftTuple = nextMatch();
+                if (leftTuple != null)
+                    return joinTuples(leftTuple, rightTuple);
             }
-            //if right tuples don't have next i.e. reached the end
-            if (this.c1.hasNext()) { //go to next tuple on the left side
-                leftTuple = c1.next();
-                c2.rewind(); //start from beginning for right tuples
-            } else { //reached the end of left tuples
-                leftTuple = null;
+            if (!block.isEmpty() && c2.hasNext()) { //next right tuple against the same block
+                rightTuple = c2.next();
+                startMatches();
+            } else { //reached the end of right tuples, go to next block on the left side
+                rightTuple = null;
+                if (!readBlock())
+                    return null; //reached the end of left tuples
             }
         }
-        return null;
     }
     
     private Tuple joinTuples(Tuple _leftTuple, Tuple _rightTuple)
     {
 		int leftTupleSize = _leftTuple.getTupleDesc().numFields();
 		int rightTupleSize = _rightTuple.getTupleDesc().numFields();
-		Tuple joinedTuple = new Tuple(this.getTupleDesc());
+		Tuple joinedTuple;
+		if (getReuseTuples()) { //fill a recycled tuple instead of allocating one
+			if (ring == null)
+				ring = new TupleRing(this.getTupleDesc(), TupleRing.TUPLE_SIZE);
+			joinedTuple = ring.next();
+		} else
+			joinedTuple = new Tuple(this.getTupleDesc());
 		for (int i = 0; i < leftTupleSize; i++)
 		{
 			joinedTuple.setField(i, _leftTuple.getField(i));
@@ -68,7 +68,24 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // pick the operator that estimateJoinCost would charge for, with the
+        // sizes of the tables the subplans read
+        JoinCost c = new JoinCost(lj.p, estimateCard(plan1), estimateCard(plan2),
+                estimateScanCost(plan1), estimateScanCost(plan2),
+                blockSize(plan1.getTupleDesc().getSize()));
+        c.sorted1 = SortMergeJoin.isSortedOn(plan1, t1id);
+        c.sorted2 = SortMergeJoin.isSortedOn(plan2, t2id);
+        c.indexed2 = IndexNestedLoopJoin.isIndexed(plan2, t2id);
+        switch (c.cheapest()) {
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOPS:
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
@@ -107,12 +124,209 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // the cheapest of the operators instantiateJoin chooses from; a
+            // table is in order of its join field if it is a BTreeFile keyed
+            // on it (see SortMergeJoin.isSortedOn)
+            JoinCost c = new JoinCost(j.p, card1, card2, cost1, cost2, outerBlockSize(j));
+            c.sorted1 = isKeyedOn(j.t1Alias, j.f1PureName);
+            c.sorted2 = isKeyedOn(j.t2Alias, j.f2PureName);
+            c.indexed2 = c.sorted2;
+            return c.cost(c.cheapest());
+        }
+    }
+
+    // the join operators instantiateJoin chooses from
+    private static final int NESTED_LOOPS = 0, INDEX_NESTED_LOOPS = 1, SORT_MERGE = 2;
+
+    /**
+     * The cost model shared by {@link #estimateJoinCost} and
+     * {@link #instantiateJoin}: the estimated cost of each join operator for
+     * inputs of given sizes and orders.
+     */
+    private static class JoinCost {
+        final Predicate.Op op;
+        final int card1, card2;
+        final double cost1, cost2;
+        final int blockSize; // outer tuples per block of a Join
+        boolean sorted1, sorted2; // input in order of its join field
+        boolean indexed2; // inner input is a BTreeFile keyed on its join field
+
+        JoinCost(Predicate.Op op, int card1, int card2, double cost1,
+                double cost2, int blockSize) {
+            this.op = op;
+            this.card1 = card1;
+            this.card2 = card2;
+            this.cost1 = cost1;
+            this.cost2 = cost2;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * @return the operator with the lowest cost; on a tie, the earlier
+         *         of NESTED_LOOPS, INDEX_NESTED_LOOPS and SORT_MERGE
+         */
+        int cheapest() {
+            int best = NESTED_LOOPS;
+            for (int algorithm = INDEX_NESTED_LOOPS; algorithm <= SORT_MERGE; algorithm++) {
+                if (cost(algorithm) < cost(best))
+                    best = algorithm;
+            }
+            return best;
+        }
+
+        /**
+         * @return the cost of joining with the given operator, or infinity if
+         *         it cannot evaluate the join
+         */
+        double cost(int algorithm) {
+            boolean ordered = op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+            switch (algorithm) {
+            case INDEX_NESTED_LOOPS:
+                if (!ordered || !indexed2)
+                    return Double.POSITIVE_INFINITY;
+                // one probe per outer tuple; a probe reads one root-to-leaf
+                // path, about log(pages) of the inner table, and the sorted
+                // outer batches keep those pages cached
+                return cost1 + card1 * (Math.log(cost2 + 1) / Math.log(2));
+            case SORT_MERGE:
+                if (!ordered)
+                    return Double.POSITIVE_INFINITY;
+                double cost = cost1 + cost2 + card1 + card2;
+                if (!sorted1)
+                    cost += sortCost(card1, cost1);
+                if (!sorted2)
+                    cost += sortCost(card2, cost2);
+                if (op != Predicate.Op.EQUALS) {
+                    // child2 is spilled once, and for each left tuple the
+                    // matching part, half of it on average, is read back
+                    cost += 2 * cost2 + card1 * (cost2 + card2) / 2;
+                }
+                return cost;
+            default:
+                // block nested loops: one scan of the inner table per block
+                // of outer tuples, sized as in Join
+                double blocks = Math.ceil((double) card1 / blockSize);
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+        }
+    }
+
+    /**
+     * @return the cost of sorting card tuples whose scan costs scanCost with
+     *         an OrderBy: the comparisons, and for an external sort writing
+     *         and reading the runs once per merge pass
+     */
+    private static double sortCost(int card, double scanCost) {
+        double cost = card * (Math.log(card + 1) / Math.log(2));
+        if (card > OrderBy.RUN_SIZE) {
+            // replacement selection makes runs about twice RUN_SIZE long
+            double runs = Math.ceil(card / (2.0 * OrderBy.RUN_SIZE));
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(OrderBy.MERGE_FANIN)));
+            cost += 2 * scanCost * passes;
+        }
+        return cost;
+    }
+
+    /**
+     * @return about how many tuples of the outer table of j fit in one block
+     *         of a block nested-loops Join
+     */
+    private int outerBlockSize(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return 1;
+        return blockSize(Database.getCatalog().getTupleDesc(tableId).getSize());
+    }
+
+    /**
+     * @return about how many outer tuples of the given size fit in one block
+     *         of a block nested-loops Join
+     */
+    private static int blockSize(int tupleSize) {
+        return Math.max(1, Join.BLOCK_PAGES * BufferPool.getPageSize() / tupleSize);
+    }
+
+    /**
+     * @return true if the table with the given alias is a BTreeFile keyed on
+     *         the given field, so that it can be probed and is scanned in
+     *         order of that field
+     * @see IndexNestedLoopJoin
+     */
+    private boolean isKeyedOn(String alias, String pureField) {
+        Integer tableId = p.getTableId(alias);
+        if (tableId == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return false;
+        TupleDesc td = f.getTupleDesc();
+        int keyField = ((BTreeFile) f).keyField();
+        return keyField < td.numFields()
+                && pureField.equals(td.getFieldName(keyField));
+    }
+
+    /**
+     * @return the number of pages of the tables plan scans. Filters are not
+     *         estimated here, so they are taken to keep every tuple.
+     */
+    private static int planPages(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            if (f instanceof HeapFile)
+                return ((HeapFile) f).numPages();
+            if (f instanceof BTreeFile)
+                return ((BTreeFile) f).numPages();
+            if (f instanceof PartitionedFile) {
+                PartitionedFile pf = (PartitionedFile) f;
+                int pages = 0;
+                for (int i = 0; i < pf.numPartitions(); i++)
+                    pages += pf.getPartition(i).numPages();
+                return pages;
+            }
+            return 0;
+        }
+        int pages = 0;
+        for (OpIterator child : childrenOf(plan)) {
+            if (child != null)
+                pages += planPages(child);
+        }
+        return pages;
+    }
+
+    /**
+     * @return the estimated number of tuples plan returns: the tuples of a
+     *         scanned table, and for other operators as many as their largest
+     *         input, as for a join on a key
+     */
+    private static int estimateCard(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            int tupleSize = plan.getTupleDesc().getSize();
+            int perPage = (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
+            return planPages(plan) * perPage;
+        }
+        int card = 0;
+        for (OpIterator child : childrenOf(plan)) {
+            if (child != null)
+                card = Math.max(card, estimateCard(child));
+        }
+        return card;
+    }
+
+    /**
+     * @return the estimated cost of evaluating plan once, in the units of
+     *         TableStats.estimateScanCost
+     */
+    private static double estimateScanCost(OpIterator plan) {
+        return (double) planPages(plan) * TableStats.IOCOSTPERPAGE;
+    }
+
+    private static OpIterator[] childrenOf(OpIterator plan) {
+        if (plan instanceof Operator) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            if (children != null)
+                return children;
         }
+        return new OpIterator[0];
     }
 
     /**
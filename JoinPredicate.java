@@ -41,6 +41,8 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(_field1) == Type.INT_TYPE) //compare unboxed ints
+            return IntField.compare(_Op, t1.getInt(_field1), t2.getInt(_field2));
         return t1.getField(_field1).compare(_Op, t2.getField(_field2));
     }
     
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements a relational LIMIT: it returns the
+ * first n tuples of its child. The child is closed as soon as the nth tuple
+ * has been read, so that a scan below it stops reading pages.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private int limit;
+    private int count;
+    private boolean childOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the maximum number of tuples this operator returns
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        count = 0;
+        if (limit > 0) {
+            child.open();
+            childOpen = true;
+        }
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeChild();
+    }
+
+    private void closeChild() {
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        count = 0;
+        if (childOpen)
+            child.rewind();
+        else if (limit > 0) {
+            child.open();
+            childOpen = true;
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the child
+     * until limit tuples have been returned.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!childOpen || !child.hasNext()) {
+            closeChild();
+            return null;
+        }
+        Tuple t = child.next();
+        if (++count >= limit)
+            closeChild();
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and BULK_APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_APPEND records describe a batch of whole pages appended to the
+end of a HeapFile without going through the buffer pool (see
+HeapFile.appendPageFile). They consist of the integer table id, the
+integer number of the first appended page, and the integer count of
+appended pages. Undoing one means truncating the table back to its first
+appended page.
+
 </ul>
 
 */
@@ -82,6 +89,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_APPEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -218,6 +226,33 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_APPEND record to disk for the specified tid, and
+        force the log to disk so that the record is durable before the
+        pages it describes are written.
+        @param tid The transaction appending the pages
+        @param tableId The table the pages are appended to
+        @param firstPage The page number of the first appended page
+        @param numPages The number of pages appended
+
+        @see simpledb.HeapFile#appendPageFile
+    */
+    public synchronized void logBulkAppend(TransactionId tid, int tableId,
+                                           int firstPage, int numPages)
+        throws IOException {
+        Debug.log("BULK APPEND, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(BULK_APPEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+
+        Debug.log("BULK APPEND OFFSET = " + currentOffset);
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -429,6 +464,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_APPEND_RECORD:
+                    logNew.writeInt(raf.readInt()); // table id
+                    logNew.writeInt(raf.readInt()); // first page
+                    logNew.writeInt(raf.readInt()); // page count
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.NoSuchElementException;
 
 /**
@@ -13,8 +14,8 @@ import java.util.NoSuchElementException;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * LogicalPlans can represent queries with several aggregates, but
+ * only one group by field.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -31,10 +32,12 @@ public class LogicalPlan {
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1; // -1 if there is no LIMIT
+    private boolean distinct = false;
     private String query;
 //    private Query owner;
 
@@ -186,34 +189,67 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of a query are computed together
+        in one pass, and must have the same GROUP BY field; adding the
+        same aggregate twice has no effect.
         @param op the aggregation operator
-        @param afield the field to aggregate over
+        @param afield the field to aggregate over, or * for COUNT(*)
         @param gfield the field to group by
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (hasAgg && (gfield == null ? groupByField != null : !gfield.equals(groupByField)))
+            throw new ParsingException("All aggregates must have the same GROUP BY field");
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
         groupByField = gfield;
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** @return the position of an aggregate among those added by
+        addAggregate, or -1 if it was not added */
+    private int aggregateIndex(String op, String afield) {
+        for (int j = 0; j < aggOps.size(); j++) {
+            if (aggOps.elementAt(j).equalsIgnoreCase(op) && aggFields.elementAt(j).equals(afield))
+                return j;
+        }
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields added by
+        later calls break ties between tuples that are equal on the earlier ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Add a LIMIT clause: only the first n tuples of the result are returned.
+        @param n the number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
+    /** Make this a SELECT DISTINCT query: duplicate rows are removed from
+        the result, before the LIMIT is applied.
+    */
+    public void addDistinct() {
+        distinct = true;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +307,43 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Restrict the scans of partitioned tables to the partitions that can
+     *  satisfy the filters on the partitioning field.  Must run while
+     *  subplanMap still maps each alias to its SeqScan.
+     *  @param explain flag indicating whether the pruning should be printed
+     *  @see PartitionedFile#prune
+     */
+    private void prunePartitions(boolean explain) throws ParsingException {
+        Iterator<LogicalScanNode> tableIt = tables.iterator();
+        while (tableIt.hasNext()) {
+            LogicalScanNode table = tableIt.next();
+            DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+            if (!(f instanceof PartitionedFile))
+                continue;
+            PartitionedFile pf = (PartitionedFile) f;
+            String partFieldName = pf.getTupleDesc().getFieldName(pf.getPartitionField());
+
+            BitSet keep = new BitSet(pf.numPartitions());
+            keep.set(0, pf.numPartitions());
+            Iterator<LogicalFilterNode> filterIt = filters.iterator();
+            while (filterIt.hasNext()) {
+                LogicalFilterNode lf = filterIt.next();
+                if (!lf.tableAlias.equals(table.alias) || !lf.fieldPureName.equals(partFieldName))
+                    continue;
+                try {
+                    keep.and(pf.prune(lf.p, new IntField(Integer.parseInt(lf.c))));
+                } catch (NumberFormatException e) {
+                    throw new ParsingException("Expected an integer in filter on " + lf.fieldQuantifiedName);
+                }
+            }
+
+            ((SeqScan) subplanMap.get(table.alias)).restrictPartitions(keep);
+            if (explain)
+                System.out.println("Scanning " + keep.cardinality() + " of "
+                        + pf.numPartitions() + " partitions of " + table.alias);
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -306,6 +379,8 @@ public class LogicalPlan {
 
         }
 
+        prunePartitions(explain);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +398,11 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.fromString(lf.c);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Value " + lf.c + " is not a valid constant for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -414,16 +490,26 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int j = aggregateIndex(si.aggOp, si.fname);
+                if (j < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add((groupByField!=null?1:0) + j);
+                // COUNT is an INT; see Aggregate.resultType for the others
+                if (getAggOp(si.aggOp) == Aggregator.Op.COUNT) {
+                    outTypes.add(Type.INT_TYPE);
+                    continue;
+                }
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                Type aggType = td.getFieldType(id);
+                if (aggType == Type.STRING_TYPE)
+                    aggType = Type.INT_TYPE;
+                outTypes.add(Aggregate.resultType(getAggOp(si.aggOp), aggType));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
@@ -462,10 +548,20 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
+                int[] aFieldIndexes = new int[aggOps.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int j = 0; j < ops.length; j++) {
+                    ops[j] = getAggOp(aggOps.elementAt(j));
+                    if (aggFields.elementAt(j).equals("null.*")) {
+                        if (ops[j] != Aggregator.Op.COUNT)
+                            throw new ParsingException("Only COUNT can be applied to *");
+                        aFieldIndexes[j] = 0; // COUNT(*) counts tuples, whatever the field
+                    } else
+                        aFieldIndexes[j] = td.fieldNameToIndex(aggFields.elementAt(j));
+                }
+                aggNode = new Aggregate(node, aFieldIndexes,
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                        ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,11 +570,38 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        // with DISTINCT, the LIMIT applies to the distinct rows
+        int[] oByIndexes = new int[oByFields.size()];
+        if (!oByFields.isEmpty()) {
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int k = 0; k < oByIndexes.length; k++) {
+                oByIndexes[k] = node.getTupleDesc().fieldNameToIndex(oByFields.get(k));
+                asc[k] = oByAscs.get(k);
+            }
+            if (limit >= 0 && !distinct) // only the first tuples are needed, keep those in a heap
+                node = new TopN(limit, oByIndexes, asc, node);
+            else
+                node = new OrderBy(oByIndexes, asc, node);
+        } else if (limit >= 0 && !distinct) {
+            node = new Limit(limit, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        node = new Project(outFields, outTypes, node);
+        if (distinct) {
+            // the projected rows are sorted on the ORDER BY fields, so
+            // Distinct only has to compare rows that agree on those
+            int[] sortedFields = new int[oByIndexes.length];
+            for (int k = 0; k < oByIndexes.length; k++) {
+                sortedFields[k] = outFields.indexOf(oByIndexes[k]);
+                if (sortedFields[k] < 0)
+                    throw new ParsingException("ORDER BY field " + oByFields.get(k)
+                            + " must appear in the SELECT DISTINCT list");
+            }
+            node = new Distinct(node, sortedFields);
+            if (limit >= 0)
+                node = new Limit(limit, node);
+        }
+        return node;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,274 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * Knows how to compute several aggregates, each over its own field, for the
+ * same grouping in a single pass over the tuples.
+ * <p>
+ * Like {@link IntegerAggregator}, groups are numbered in the order they are
+ * first seen and all group state lives in primitive arrays indexed by group
+ * number: one tuple count per group, shared by all the aggregates, and per
+ * aggregate a long[] of running values for INT_TYPE and LONG_TYPE fields or a
+ * double[] for DOUBLE_TYPE fields. STRING_TYPE fields only support COUNT.
+ * Each aggregate produces the same value as the single-aggregate aggregator
+ * for its type would.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private int gbField;
+    private Type gbFieldType;
+    private int[] aFields;
+    private Type[] aFieldTypes;
+    private Op[] ops;
+
+    // group numbering: intGroups for INT_TYPE group-by fields, otherwise
+    // groupIds and groupValues
+    private IntGroupTable intGroups;
+    private HashMap<Field, Integer> groupIds;
+    private ArrayList<Field> groupValues;
+    private int numGroups;
+
+    // per group: the number of tuples; per aggregate and group: the running
+    // MIN, MAX or SUM, in longValues or doubleValues depending on the type
+    private long[] counts;
+    private long[][] longValues;
+    private double[][] doubleValues;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param what
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *             if an operator other than COUNT is applied to a
+     *             STRING_TYPE field, or SUM_COUNT or SC_AVG is used
+     */
+    public MultiAggregator(int gbfield, Type gbfieldtype, int[] afields,
+            Type[] afieldtypes, Op[] what) {
+        if (afields.length != what.length || afieldtypes.length != what.length)
+            throw new IllegalArgumentException("one field and type per aggregate expected");
+        gbField = gbfield;
+        gbFieldType = gbfieldtype;
+        aFields = afields;
+        aFieldTypes = afieldtypes;
+        ops = what;
+        if (gbField != Aggregator.NO_GROUPING && gbFieldType == Type.INT_TYPE) {
+            intGroups = new IntGroupTable(INITIAL_GROUPS);
+        } else {
+            groupIds = new HashMap<Field, Integer>();
+            groupValues = new ArrayList<Field>();
+        }
+        counts = new long[INITIAL_GROUPS];
+        longValues = new long[ops.length][];
+        doubleValues = new double[ops.length][];
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.SUM_COUNT || ops[j] == Op.SC_AVG)
+                throw new IllegalArgumentException("cannot compute " + ops[j]);
+            if (aFieldTypes[j] == Type.STRING_TYPE) {
+                if (ops[j] != Op.COUNT)
+                    throw new IllegalArgumentException("cannot compute " + ops[j]
+                            + " of a string field");
+            } else if (aFieldTypes[j] == Type.DOUBLE_TYPE) {
+                doubleValues[j] = new double[INITIAL_GROUPS];
+            } else {
+                longValues[j] = new long[INITIAL_GROUPS];
+            }
+        }
+    }
+
+    /**
+     * @return the number of the group tup belongs to, adding the group if it
+     *         is new
+     */
+    private int groupOf(Tuple tup) {
+        if (intGroups != null)
+            return addGroup(intGroups.groupOf(tup.getInt(gbField)));
+        return groupOf(gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField));
+    }
+
+    /**
+     * @return the number of the group of a group-by value that is not
+     *         numbered by intGroups, adding the group if it is new
+     */
+    private int groupOf(Field groupValue) {
+        Integer id = groupIds.get(groupValue);
+        if (id != null)
+            return id;
+        groupIds.put(groupValue, numGroups);
+        groupValues.add(groupValue);
+        return addGroup(numGroups);
+    }
+
+    /**
+     * Makes room for the state of group if it is a new one.
+     *
+     * @return group
+     */
+    private int addGroup(int group) {
+        if (group == numGroups) { // a new group
+            if (numGroups == counts.length) {
+                counts = Arrays.copyOf(counts, numGroups * 2);
+                for (int j = 0; j < ops.length; j++) {
+                    if (longValues[j] != null)
+                        longValues[j] = Arrays.copyOf(longValues[j], numGroups * 2);
+                    if (doubleValues[j] != null)
+                        doubleValues[j] = Arrays.copyOf(doubleValues[j], numGroups * 2);
+                }
+            }
+            counts[group] = 0;
+            numGroups++;
+        }
+        return group;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        merge(groupOf(tup), tup);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int group;
+        if (intGroups != null) {
+            group = intGroups.find(tup.getInt(gbField));
+        } else {
+            Integer id = groupIds.get(gbField == Aggregator.NO_GROUPING ? null
+                    : tup.getField(gbField));
+            group = id == null ? -1 : id;
+        }
+        if (group < 0)
+            return false;
+        merge(group, tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private void merge(int group, Tuple tup) {
+        boolean first = counts[group] == 0;
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.COUNT) // COUNT only needs the count
+                continue;
+            if (longValues[j] != null)
+                combine(j, group, first, aFieldTypes[j] == Type.INT_TYPE
+                        ? tup.getInt(aFields[j]) : tup.getLong(aFields[j]));
+            else
+                combine(j, group, first, tup.getDouble(aFields[j]));
+        }
+        counts[group]++;
+    }
+
+    /**
+     * Combines v into the running value of the j-th aggregate of group, or
+     * makes it the running value if it is the first one of the group.
+     */
+    private void combine(int j, int group, boolean first, long v) {
+        long[] values = longValues[j];
+        switch (ops[j]) {
+        case MIN: if (first || v < values[group]) values[group] = v; break;
+        case MAX: if (first || v > values[group]) values[group] = v; break;
+        default: values[group] = first ? v : values[group] + v; break; // SUM, AVG
+        }
+    }
+
+    private void combine(int j, int group, boolean first, double v) {
+        double[] values = doubleValues[j];
+        switch (ops[j]) {
+        case MIN: values[group] = first ? v : Math.min(values[group], v); break;
+        case MAX: values[group] = first ? v : Math.max(values[group], v); break;
+        default: values[group] = first ? v : values[group] + v; break; // SUM, AVG
+        }
+    }
+
+    /**
+     * Merges the groups of other, a partial aggregate computed with the same
+     * fields and operators over other tuples, into this one: MIN, MAX and SUM
+     * combine the partial values, COUNT adds up the partial counts, and AVG
+     * adds up the partial sums and counts, so that it divides the total sum
+     * by the total count.
+     */
+    void merge(MultiAggregator other) {
+        for (int og = 0; og < other.numGroups; og++) {
+            int group = intGroups != null ? addGroup(intGroups.groupOf(other.intGroups.key(og)))
+                    : groupOf(other.groupValues.get(og));
+            boolean first = counts[group] == 0;
+            for (int j = 0; j < ops.length; j++) {
+                if (ops[j] == Op.COUNT)
+                    continue;
+                if (longValues[j] != null)
+                    combine(j, group, first, other.longValues[j][og]);
+                else
+                    combine(j, group, first, other.doubleValues[j][og]);
+            }
+            counts[group] += other.counts[og];
+        }
+    }
+
+    /**
+     * @return the type of the j-th aggregate value in the result tuples
+     */
+    private Type resultType(int j) {
+        return Aggregate.resultType(ops[j], aFieldTypes[j]);
+    }
+
+    private Field result(int j, int group) {
+        if (ops[j] == Op.COUNT)
+            return new IntField((int) counts[group]);
+        if (doubleValues[j] != null) {
+            double v = doubleValues[j][group];
+            return new DoubleField(ops[j] == Op.AVG ? v / counts[group] : v);
+        }
+        long v = longValues[j][group];
+        if (ops[j] == Op.AVG)
+            v /= counts[group];
+        return resultType(j) == Type.INT_TYPE ? new IntField((int) v) : new LongField(v);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group value followed by the
+     *         aggregate values in the order of the constructor's arguments,
+     *         or just the aggregate values if there is no grouping.
+     */
+    public OpIterator iterator() {
+        int first = gbField == Aggregator.NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[first + ops.length];
+        String[] names = new String[types.length];
+        if (first == 1) {
+            types[0] = gbFieldType;
+            names[0] = "groupValue";
+        }
+        for (int j = 0; j < ops.length; j++) {
+            types[first + j] = resultType(j);
+            names[first + j] = "aggregateValue" + j;
+        }
+        TupleDesc td = new TupleDesc(types, names);
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(numGroups);
+        for (int group = 0; group < numGroups; group++) {
+            Tuple t = new Tuple(td);
+            if (first == 1)
+                t.setField(0, intGroups != null
+                        ? new IntField(intGroups.key(group)) : groupValues.get(group));
+            for (int j = 0; j < ops.length; j++)
+                t.setField(first + j, result(j, group));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields or
+ * DoubleFields.
+ * <p>
+ * Each group keeps its running count and value in primitive fields of one
+ * small state object, so merging a tuple allocates nothing once its group
+ * exists. SUM, MIN, MAX and AVG produce a value of the aggregated type (AVG
+ * of longs is truncated, like IntegerAggregator's); COUNT produces an int.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Running state of one group. */
+    private static class GroupState {
+        int count;
+        long longValue;
+        double doubleValue;
+    }
+
+    private int gbField;
+    private Type gbFieldType;
+    private int aField;
+    private Type aFieldType;
+    private Op op;
+    private LinkedHashMap<Field, GroupState> groups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field, LONG_TYPE or DOUBLE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if afieldtype is not LONG_TYPE or DOUBLE_TYPE
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE)
+            throw new IllegalArgumentException("cannot aggregate " + afieldtype + " numerically");
+        gbField = gbfield;
+        gbFieldType = gbfieldtype;
+        aField = afield;
+        aFieldType = afieldtype;
+        op = what;
+        groups = new LinkedHashMap<Field, GroupState>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field group = gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField);
+        GroupState g = groups.get(group);
+        if (g == null) {
+            g = new GroupState();
+            g.longValue = op == Op.MIN ? Long.MAX_VALUE : op == Op.MAX ? Long.MIN_VALUE : 0;
+            g.doubleValue = op == Op.MIN ? Double.POSITIVE_INFINITY
+                    : op == Op.MAX ? Double.NEGATIVE_INFINITY : 0;
+            groups.put(group, g);
+        }
+        merge(g, tup);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        GroupState g = groups.get(gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField));
+        if (g == null)
+            return false;
+        merge(g, tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    private void merge(GroupState g, Tuple tup) {
+        g.count++;
+        if (op == Op.COUNT)
+            return;
+
+        if (aFieldType == Type.LONG_TYPE) {
+            long v = tup.getLong(aField);
+            switch (op) {
+            case MIN: if (v < g.longValue) g.longValue = v; break;
+            case MAX: if (v > g.longValue) g.longValue = v; break;
+            case SUM: case AVG: g.longValue += v; break;
+            default: break;
+            }
+        } else {
+            double v = tup.getDouble(aField);
+            switch (op) {
+            case MIN: g.doubleValue = Math.min(g.doubleValue, v); break;
+            case MAX: g.doubleValue = Math.max(g.doubleValue, v); break;
+            case SUM: case AVG: g.doubleValue += v; break;
+            default: break;
+            }
+        }
+    }
+
+    /**
+     * @return the type of the aggregate value in the result tuples
+     */
+    private Type resultType() {
+        return op == Op.COUNT ? Type.INT_TYPE : aFieldType;
+    }
+
+    private Field result(GroupState g) {
+        if (op == Op.COUNT)
+            return new IntField(g.count);
+        if (aFieldType == Type.LONG_TYPE)
+            return new LongField(op == Op.AVG ? g.longValue / g.count : g.longValue);
+        return new DoubleField(op == Op.AVG ? g.doubleValue / g.count : g.doubleValue);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        TupleDesc td;
+        if (gbField == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] {resultType()}, new String[] {"aggregateValue"});
+        else
+            td = new TupleDesc(new Type[] {gbFieldType, resultType()},
+                    new String[] {"groupValue", "aggregateValue"});
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<Field, GroupState> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            if (gbField == Aggregator.NO_GROUPING)
+                t.setField(0, result(e.getValue()));
+            else {
+                t.setField(0, e.getKey());
+                t.setField(1, result(e.getValue()));
+            }
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+}
@@ -57,6 +57,29 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private boolean reuseTuples = false;
+
+    /**
+     * Turns tuple reuse mode on or off. It is off by default.
+     * <p>
+     * In reuse mode, an operator that builds its own output tuples (such as
+     * Project or a join) fills a small set of recycled tuples instead of
+     * allocating one per row. A tuple returned by next() is then only valid
+     * until next() is called again, and the rows of a batch only until the
+     * next batch; consumers that keep tuples must {@link Tuple#detach} them.
+     * Operators that pass their input tuples through are not affected.
+     */
+    public void setReuseTuples(boolean reuse) {
+        this.reuseTuples = reuse;
+    }
+
+    /**
+     * @return true if this operator is in tuple reuse mode
+     * @see #setReuseTuples
+     */
+    public boolean getReuseTuples() {
+        return reuseTuples;
+    }
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
@@ -4,17 +4,56 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * A child that fits in {@link #RUN_SIZE} tuples (see
+ * {@link #setMaxTuplesInMemory}) is sorted in memory. A larger one is sorted
+ * externally: runs are generated by replacement selection, which keeps a heap
+ * of RUN_SIZE tuples and writes out the smallest one that still fits in the
+ * current run, so that runs are about twice as long as the heap (and an input
+ * that is already nearly sorted makes a single run). The runs go to
+ * {@link SpillFile}s and are merged with a heap, {@link #MERGE_FANIN} at a time.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of tuples sorted in memory. A child with more tuples is
+     * sorted externally.
+     */
+    public final static int RUN_SIZE = 20000;
+
+    /** Number of runs merged in one pass. */
+    public final static int MERGE_FANIN = 64;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
     private String orderByFieldName;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private boolean[] asc;
+    private int maxInMemory = RUN_SIZE;
+    private transient TupleComparator comparator;
+    // external sort: the sorted runs, and the heap merging them
+    private transient ArrayList<SpillFile> runs;
+    private transient SpillFile.Reader[] readers;
+    private transient PriorityQueue<RunTuple> merge;
+
+    /**
+     * A tuple and the run it belongs to. During run generation the run is the
+     * number of the run the tuple will be written to; during the merge it is
+     * the index of the run it was read from.
+     */
+    private static class RunTuple {
+        final int run;
+        final Tuple t;
+
+        RunTuple(int run, Tuple t) {
+            this.run = run;
+            this.t = t;
+        }
+    }
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,21 +66,61 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.orderByFields = orderbyFields;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
         this.asc = asc;
+        this.comparator = new TupleComparator(orderbyFields, asc);
+    }
+
+    /**
+     * Sets the number of tuples sorted in memory, instead of RUN_SIZE. Takes
+     * effect when the operator is next opened.
+     */
+    public void setMaxTuplesInMemory(int maxTuples) {
+        this.maxInMemory = maxTuples;
     }
     
+    /**
+     * @return true if the first sort field is sorted ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /**
+     * @return the first sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields;
+    }
+
+    public boolean[] getAscending()
+    {
+        return this.asc;
     }
     
     public String getOrderFieldName()
@@ -56,21 +135,151 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (comparator == null)
+            comparator = new TupleComparator(orderByFields, asc);
+        // load the tuples in a collection, and sort it if that is all of them
+        childTups.clear();
+        int limit = Math.max(1, maxInMemory);
+        while (childTups.size() < limit && child.hasNext())
+            childTups.add(child.next().detach());
+        if (child.hasNext()) {
+            generateRuns();
+            while (runs.size() > MERGE_FANIN)
+                mergePass();
+            startMerge();
+        } else {
+            comparator.sort(childTups);
+            it = childTups.iterator();
+        }
         super.open();
     }
 
     public void close() {
         super.close();
         it = null;
+        childTups.clear();
+        closeReaders();
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs != null) {
+            closeReaders();
+            startMerge();
+        } else
+            it = childTups.iterator();
+    }
+
+    /**
+     * Writes the child, whose first tuples are in childTups, to sorted runs by
+     * replacement selection.
+     */
+    private void generateRuns() throws DbException, TransactionAbortedException {
+        PriorityQueue<RunTuple> heap = new PriorityQueue<RunTuple>(
+                childTups.size(), new Comparator<RunTuple>() {
+                    public int compare(RunTuple a, RunTuple b) {
+                        if (a.run != b.run)
+                            return a.run < b.run ? -1 : 1;
+                        return comparator.compare(a.t, b.t);
+                    }
+                });
+        for (Tuple t : childTups)
+            heap.add(new RunTuple(0, t));
+        childTups.clear();
+
+        runs = new ArrayList<SpillFile>();
+        SpillFile out = null;
+        int run = -1;
+        while (!heap.isEmpty()) {
+            RunTuple smallest = heap.poll();
+            if (smallest.run != run) { // no tuple left for the current run
+                run = smallest.run;
+                out = new SpillFile(td);
+                runs.add(out);
+            }
+            out.add(smallest.t);
+            if (child.hasNext()) {
+                // a tuple smaller than the one just written has to wait for
+                // the next run
+                Tuple t = child.next().detach();
+                heap.add(new RunTuple(comparator.compare(t, smallest.t) >= 0
+                        ? run : run + 1, t));
+            }
+        }
+    }
+
+    /**
+     * Merges the runs MERGE_FANIN at a time into fewer, longer runs.
+     */
+    private void mergePass() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int from = 0; from < runs.size(); from += MERGE_FANIN) {
+            List<SpillFile> group = runs.subList(from,
+                    Math.min(from + MERGE_FANIN, runs.size()));
+            SpillFile out = new SpillFile(td);
+            SpillFile.Reader[] rs = new SpillFile.Reader[group.size()];
+            PriorityQueue<RunTuple> heap = openRuns(group, rs);
+            while (!heap.isEmpty())
+                out.add(nextMerged(heap, rs));
+            for (int i = 0; i < rs.length; i++) {
+                rs[i].close();
+                group.get(i).delete();
+            }
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    private void startMerge() throws DbException {
+        readers = new SpillFile.Reader[runs.size()];
+        merge = openRuns(runs, readers);
+    }
+
+    private void closeReaders() {
+        if (readers != null) {
+            for (SpillFile.Reader r : readers)
+                r.close();
+            readers = null;
+        }
+        merge = null;
+    }
+
+    /**
+     * Opens a reader on each of the given runs and puts their first tuples in
+     * a heap.
+     */
+    private PriorityQueue<RunTuple> openRuns(List<SpillFile> files,
+            SpillFile.Reader[] rs) throws DbException {
+        PriorityQueue<RunTuple> heap = new PriorityQueue<RunTuple>(
+                Math.max(1, files.size()), new Comparator<RunTuple>() {
+                    public int compare(RunTuple a, RunTuple b) {
+                        return comparator.compare(a.t, b.t);
+                    }
+                });
+        for (int i = 0; i < files.size(); i++) {
+            rs[i] = files.get(i).reader();
+            Tuple t = rs[i].next();
+            if (t != null)
+                heap.add(new RunTuple(i, t));
+        }
+        return heap;
+    }
+
+    /**
+     * Removes the smallest tuple from a merge heap, replacing it with the
+     * next tuple of its run.
+     */
+    private static Tuple nextMerged(PriorityQueue<RunTuple> heap,
+            SpillFile.Reader[] rs) throws DbException {
+        RunTuple smallest = heap.poll();
+        Tuple next = rs[smallest.run].next();
+        if (next != null)
+            heap.add(new RunTuple(smallest.run, next));
+        return smallest.t;
     }
 
     /**
@@ -82,7 +291,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (merge != null) {
+            return merge.isEmpty() ? null : nextMerged(merge, readers);
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -99,25 +310,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
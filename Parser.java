@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,7 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static boolean reuseTuples = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -207,8 +210,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,16 +221,14 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
                 if (groupByField != null
                         && !(groupByField.equals(si.getTable() + "."
@@ -241,30 +242,32 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (groupByField != null && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        // all the aggregates are computed in one pass
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), groupByField);
+        }
+
+        if (q.isDistinct()) {
+            lp.addDistinct();
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -273,14 +276,42 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * Turns tuple reuse mode on in every operator of plan.
+     *
+     * @see Operator#setReuseTuples
+     */
+    static void enableTupleReuse(OpIterator plan) {
+        if (!(plan instanceof Operator))
+            return;
+        Operator op = (Operator) plan;
+        op.setReuseTuples(true);
+        for (OpIterator child : op.getChildren())
+            enableTupleReuse(child);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, NO_LIMIT);
+    }
+
+    /**
+     * Plans and prepares a query that had a <tt>LIMIT limit</tt> clause, or
+     * none if limit is NO_LIMIT.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != NO_LIMIT)
+            lp.addLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
+        if (reuseTuples)
+            enableTupleReuse(physicalPlan);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
@@ -357,25 +388,32 @@ public class Parser {
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (td.getFieldType(i) == Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is not an integer, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
+                    Field f;
+                    try {
+                        f = td.getFieldType(i).fromString(zc.getValue());
+                    } catch (NumberFormatException nfe) {
+                        throw new simpledb.ParsingException("Value "
+                                + zc.getValue() + " is not a valid "
+                                + td.getFieldType(i) + " value.");
+                    }
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
                     if (td.getFieldType(i) != Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
                     StringField f = new StringField(zc.getValue(),
                             Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
                 }
 
                 i++;
@@ -427,6 +465,92 @@ public class Parser {
 
     }
 
+    /**
+     * COPY is not part of the SQL dialect Zql understands, so statements of
+     * the form <tt>COPY table FROM 'file' [DELIMITER 'c'];</tt> are
+     * recognized here before the input is handed to Zql.
+     */
+    static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*COPY\\s+(\\w+)\\s+FROM\\s+'([^']*)'(?:\\s+DELIMITER\\s+'(.)')?\\s*;",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Longest statement prefix looked at when checking for COPY. */
+    static final int COPY_PEEK_BYTES = 4096;
+
+    /**
+     * Zql does not understand LIMIT either, so a SELECT statement ending in
+     * <tt>LIMIT n;</tt> has the clause taken off here before it is handed to
+     * Zql, and the limit is added to its logical plan.
+     */
+    static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(\\s*SELECT\\b[^;]*?)\\s+LIMIT\\s+(\\d+)\\s*;",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Passed as the limit of a query without a LIMIT clause. */
+    static final int NO_LIMIT = -1;
+
+    public Query handleCopyStatement(String table, String fileName,
+            char fieldSeparator, TransactionId tId) throws DbException,
+            simpledb.ParsingException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        File source = new File(fileName);
+        if (!source.isFile()) {
+            throw new simpledb.ParsingException("Cannot read file : "
+                    + fileName);
+        }
+
+        Query copyQ = new Query(tId);
+        copyQ.setPhysicalPlan(new Copy(tId, source, tableId, fieldSeparator));
+        return copyQ;
+    }
+
+    /**
+     * Checks whether the next statement on the stream is a COPY statement.
+     * The stream must support mark/reset; it is left positioned at the start
+     * of the statement either way.
+     *
+     * @return the match for a COPY statement, or null if the next statement
+     *         is something else
+     */
+    private Matcher peekCopyStatement(InputStream is) throws IOException {
+        return peekStatement(is, COPY_STATEMENT);
+    }
+
+    /**
+     * Checks whether the start of the stream matches pattern. The stream must
+     * support mark/reset; it is left positioned where it was either way.
+     *
+     * @return the match, or null if the stream does not start with one
+     */
+    private Matcher peekStatement(InputStream is, Pattern pattern)
+            throws IOException {
+        is.mark(COPY_PEEK_BYTES);
+        byte[] buf = new byte[COPY_PEEK_BYTES];
+        int n = 0, r;
+        while (n < buf.length && (r = is.read(buf, n, buf.length - n)) > 0)
+            n += r;
+        is.reset();
+        Matcher m = pattern.matcher(new String(buf, 0, n, "UTF-8"));
+        return m.lookingAt() ? m : null;
+    }
+
+    /**
+     * @return the n of a LIMIT clause matched by LIMIT_CLAUSE
+     */
+    private static int parseLimit(Matcher limit) throws simpledb.ParsingException {
+        try {
+            return Integer.parseInt(limit.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT is too large: "
+                    + limit.group(2));
+        }
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -465,12 +589,19 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        Matcher limit = LIMIT_CLAUSE.matcher(s);
+        if (limit.lookingAt())
+            s = limit.group(1) + ";";
+        else
+            limit = null;
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit != null)
+                    lp.addLimit(parseLimit(limit));
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +634,27 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            if (!is.markSupported())
+                is = new BufferedInputStream(is);
+            Matcher copy = peekCopyStatement(is);
+            ZStatement s = null;
+            int limit = NO_LIMIT;
+            if (copy == null) {
+                InputStream zqlInput = is;
+                Matcher limitClause = peekStatement(is, LIMIT_CLAUSE);
+                if (limitClause != null) {
+                    // consume the statement and give Zql the part before LIMIT
+                    limit = parseLimit(limitClause);
+                    long len = limitClause.group().getBytes("UTF-8").length;
+                    long skipped;
+                    while (len > 0 && (skipped = is.skip(len)) > 0)
+                        len -= skipped;
+                    zqlInput = new ByteArrayInputStream(
+                            (limitClause.group(1) + ";").getBytes("UTF-8"));
+                }
+                ZqlParser p = new ZqlParser(zqlInput);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +667,12 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (copy != null)
+                        query = handleCopyStatement(copy.group(1),
+                                copy.group(2),
+                                copy.group(3) == null ? ',' : copy.group(3).charAt(0),
+                                curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -525,12 +680,12 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
                                         + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                                        + "\n -- parser only handles SQL transactions, insert, delete, select, and copy statements");
                     }
                     if (query != null)
                         query.execute();
@@ -581,7 +736,8 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "delimiter",
+            "limit", "distinct" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -595,7 +751,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-reuse] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -616,6 +772,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-reuse")) {
+                    reuseTuples = true;
+                    System.out.println("Tuple reuse enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PartitionedFile is an implementation of a DbFile that range-partitions a
+ * table on one integer field. Each partition is stored in its own HeapFile,
+ * so queries that only touch some ranges of the partitioning field only need
+ * to read the files of those partitions.
+ * <p>
+ * The partitions are described by a sorted array of boundaries b[0] &lt; b[1]
+ * &lt; ... &lt; b[n-1], giving n+1 partitions: partition 0 holds values below
+ * b[0], partition i holds values v with b[i-1] &lt;= v &lt; b[i], and partition n
+ * holds values from b[n-1] up.
+ * <p>
+ * Pages of a partition carry the id of the partition's HeapFile, not of the
+ * PartitionedFile; the Catalog resolves partition ids back to their
+ * HeapFiles so that the BufferPool can read and write them.
+ *
+ * @see simpledb.Catalog#loadSchema
+ */
+public class PartitionedFile implements DbFile {
+
+    private File file;
+    private int id;
+    private TupleDesc td;
+    private int partField;
+    private int[] bounds;
+    private HeapFile[] partitions;
+    private boolean parallelScan = true;
+
+    /**
+     * Constructs a partitioned file. Partition i is stored in the file named
+     * like f with "_p" + i inserted before the extension.
+     *
+     * @param f
+     *            the file naming this table; it does not hold any data itself
+     * @param td
+     *            the schema of the table
+     * @param partField
+     *            the index of the INT_TYPE field to partition on
+     * @param bounds
+     *            the strictly increasing partition boundaries
+     */
+    public PartitionedFile(File f, TupleDesc td, int partField, int[] bounds) {
+        if (td.getFieldType(partField) != Type.INT_TYPE)
+            throw new IllegalArgumentException("partitioning field must be an int field");
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i])
+                throw new IllegalArgumentException("partition bounds must be strictly increasing");
+        }
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.td = td;
+        this.partField = partField;
+        this.bounds = bounds.clone();
+
+        String path = f.getPath();
+        int dot = path.lastIndexOf('.');
+        String stem = dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) : path;
+        String ext = dot > path.lastIndexOf(File.separatorChar) ? path.substring(dot) : "";
+        this.partitions = new HeapFile[bounds.length + 1];
+        for (int i = 0; i < partitions.length; i++)
+            partitions[i] = new HeapFile(new File(stem + "_p" + i + ext), td);
+    }
+
+    /**
+     * Returns the File naming this table.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return this.id;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the index of the field this table is partitioned on
+     */
+    public int getPartitionField() {
+        return this.partField;
+    }
+
+    /**
+     * @return the number of partitions of this table
+     */
+    public int numPartitions() {
+        return this.partitions.length;
+    }
+
+    /**
+     * @return the HeapFile storing partition i
+     */
+    public HeapFile getPartition(int i) {
+        return this.partitions[i];
+    }
+
+    /**
+     * Sets whether scans over more than one partition read the partitions
+     * on separate threads. On by default.
+     */
+    public void setParallelScan(boolean parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    /**
+     * Returns the partition that a tuple with the given value of the
+     * partitioning field belongs to.
+     */
+    public int partitionFor(int value) {
+        // first boundary strictly greater than value
+        int lo = 0, hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bounds[mid] <= value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the partitions that may hold tuples whose partitioning field
+     * satisfies <tt>field op operand</tt>. The answer may include partitions
+     * that turn out to have no matching tuples, but never leaves out one that
+     * does.
+     *
+     * @param op
+     *            the comparison applied to the partitioning field
+     * @param operand
+     *            the constant the field is compared to
+     * @return a set with bit i set if partition i needs to be scanned
+     */
+    public BitSet prune(Predicate.Op op, Field operand) {
+        BitSet keep = new BitSet(partitions.length);
+        if (!(operand instanceof IntField)) {
+            keep.set(0, partitions.length);
+            return keep;
+        }
+        int v = ((IntField) operand).getValue();
+        int p = partitionFor(v);
+        switch (op) {
+        case EQUALS:
+            keep.set(p);
+            break;
+        case LESS_THAN:
+            // partition p starts at bounds[p-1]; nothing in it is below v if v is its lower bound
+            keep.set(0, (p > 0 && bounds[p - 1] == v) ? p : p + 1);
+            break;
+        case LESS_THAN_OR_EQ:
+            keep.set(0, p + 1);
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            keep.set(p, partitions.length);
+            break;
+        default:
+            keep.set(0, partitions.length);
+        }
+        return keep;
+    }
+
+    /**
+     * Returns the partition holding the page with the given id, or null if
+     * the page does not belong to this table.
+     */
+    HeapFile partitionOf(PageId pid) {
+        for (HeapFile hf : partitions) {
+            if (hf.getId() == pid.getTableId())
+                return hf;
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapFile hf = partitionOf(pid);
+        if (hf == null)
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        return hf.readPage(pid);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        HeapFile hf = partitionOf(page.getId());
+        if (hf == null)
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        hf.writePage(page);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null || !t.getTupleDesc().equals(this.td))
+            throw new DbException("TupleDesc does not match this file");
+        int v = ((IntField) t.getField(partField)).getValue();
+        return partitions[partitionFor(v)].insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        HeapFile hf = rid == null ? null : partitionOf(rid.getPageId());
+        if (hf == null)
+            throw new DbException("Tuple does not exist in this file.");
+        return hf.deleteTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        BitSet all = new BitSet(partitions.length);
+        all.set(0, partitions.length);
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the given partitions only.
+     *
+     * @param keep
+     *            bit i is set if partition i should be scanned
+     * @see #prune
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet keep) {
+        ArrayList<HeapFile> scanned = new ArrayList<HeapFile>();
+        for (int i = keep.nextSetBit(0); i >= 0 && i < partitions.length; i = keep.nextSetBit(i + 1))
+            scanned.add(partitions[i]);
+        return new PartitionedFileIterator(scanned, tid, parallelScan && scanned.size() > 1);
+    }
+}
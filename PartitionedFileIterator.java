@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Iterates over the tuples of a list of partitions of a PartitionedFile.
+ * <p>
+ * A serial iterator scans the partitions one after the other. A parallel
+ * iterator scans every partition on its own thread; the threads hand tuples
+ * to the caller in batches through a bounded queue, so a slow consumer holds
+ * the scanners back instead of buffering whole partitions in memory. Tuples
+ * from one partition keep their order, but tuples of different partitions
+ * are interleaved.
+ */
+class PartitionedFileIterator extends AbstractDbFileIterator {
+
+    /** Number of tuples handed over in one batch by a scanning thread. */
+    static final int BATCH_SIZE = 256;
+
+    /** Number of batches that may be waiting for the consumer. */
+    static final int QUEUE_BATCHES = 16;
+
+    private static final Tuple[] END = new Tuple[0];
+
+    List<HeapFile> partitions;
+    TransactionId tid;
+    boolean parallel;
+
+    // serial scan state
+    int curr_part;
+    DbFileIterator partIter;
+
+    /**
+     * What the scanning threads of one open() share with the consumer. Each
+     * open() makes a new one, so threads of an earlier open() that are still
+     * winding down never touch the state of a later one.
+     */
+    private static class Scan {
+        final BlockingQueue<Tuple[]> queue = new ArrayBlockingQueue<Tuple[]>(QUEUE_BATCHES);
+        volatile Exception failure;
+        volatile boolean cancelled;
+    }
+
+    // parallel scan state
+    ExecutorService pool;
+    Scan scan;
+    int running;
+    Tuple[] batch;
+    int batchPos;
+
+    public PartitionedFileIterator(List<HeapFile> partitions, TransactionId tid, boolean parallel) {
+        this.partitions = partitions;
+        this.tid = tid;
+        this.parallel = parallel;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (!parallel) {
+            curr_part = -1;
+            partIter = null;
+            return;
+        }
+
+        final Scan s = new Scan();
+        scan = s;
+        running = partitions.size();
+        batch = null;
+        pool = Executors.newFixedThreadPool(running, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "partition-scan");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (final HeapFile hf : partitions) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    scanPartition(hf, s);
+                }
+            });
+        }
+    }
+
+    /**
+     * Body of a scanning thread: reads one partition and queues its tuples
+     * for scan. Queues END last, even on failure, so that the consumer can
+     * count finished scanners, unless the scan was cancelled: then nobody
+     * takes from the queue any more, and a full queue would block forever.
+     */
+    private void scanPartition(HeapFile hf, Scan scan) {
+        DbFileIterator it = hf.iterator(tid);
+        try {
+            it.open();
+            Tuple[] out = new Tuple[BATCH_SIZE];
+            int n = 0;
+            while (!scan.cancelled && it.hasNext()) {
+                out[n++] = it.next();
+                if (n == BATCH_SIZE) {
+                    scan.queue.put(out);
+                    out = new Tuple[BATCH_SIZE];
+                    n = 0;
+                }
+            }
+            if (n > 0 && !scan.cancelled)
+                scan.queue.put(Arrays.copyOf(out, n));
+        } catch (InterruptedException e) {
+            // cancelled by close()
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            scan.failure = e;
+        } finally {
+            it.close();
+            // close() sets cancelled before it interrupts us, so a put that
+            // starts before cancelled is set is interrupted afterwards
+            if (!scan.cancelled) {
+                try {
+                    scan.queue.put(END);
+                } catch (InterruptedException e) {
+                    // cancelled by close(); nobody is waiting for END
+                }
+            }
+        }
+    }
+
+    // from AbstractDbFileIterator
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        return parallel ? readNextParallel() : readNextSerial();
+    }
+
+    private Tuple readNextSerial() throws TransactionAbortedException, DbException {
+        while (partIter == null || !partIter.hasNext()) {
+            if (partIter != null)
+                partIter.close();
+            // closed, or out of partitions
+            if (curr_part < -1 || curr_part >= partitions.size() - 1)
+                return null;
+            curr_part++;
+            partIter = partitions.get(curr_part).iterator(tid);
+            partIter.open();
+        }
+        return partIter.next();
+    }
+
+    private Tuple readNextParallel() throws TransactionAbortedException, DbException {
+        while (batch == null || batchPos == batch.length) {
+            if (scan == null || running == 0)
+                break;
+            try {
+                batch = scan.queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for partition scan");
+            }
+            batchPos = 0;
+            if (batch == END)
+                running--;
+        }
+        if (scan != null && scan.failure != null) {
+            Exception e = scan.failure;
+            close();
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            throw new DbException("partition scan failed: " + e.getMessage());
+        }
+        if (batch == null || batchPos == batch.length)
+            return null;
+        return batch[batchPos++];
+    }
+
+    /**
+     * Rewind closes the current iterator and then opens it again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Close the iterator, stopping any scanning threads and waiting for them
+     * to finish, so that none of them still holds a partition open.
+     */
+    public void close() {
+        super.close(); // from AbstractDbFileIterator
+        if (partIter != null)
+            partIter.close();
+        partIter = null;
+        curr_part = Integer.MIN_VALUE;
+
+        if (pool != null) {
+            scan.cancelled = true;
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // leave the threads to finish on their own
+            }
+            pool = null;
+        }
+        scan = null;
+        batch = null;
+        running = 0;
+    }
+}
@@ -102,9 +102,44 @@ public class Predicate implements Serializable {
         //first check if field number exists in the tuple i.e. tuple does not have less fields
     	//--> this check is actually taken care of in getField() member function of Tuple.java
     	
+    	if (_operand instanceof IntField) //compare unboxed ints
+    		return IntField.compare(_op, t.getInt(_field), ((IntField) _operand).getValue());
+    	if (_operand instanceof LongField)
+    		return LongField.compare(_op, t.getLong(_field), ((LongField) _operand).getValue());
+    	if (_operand instanceof DoubleField)
+    		return DoubleField.compare(_op, t.getDouble(_field), ((DoubleField) _operand).getValue());
     	return(t.getField(_field).compare(_op, _operand));
     }
 
+    /**
+     * Drops the rows of a batch that do not pass this predicate from its
+     * selection. Int operands are compared against the batch's int column in
+     * a single loop.
+     *
+     * @param b
+     *            The batch to filter
+     * @see #filter(Tuple)
+     */
+    public void filter(TupleBatch b) {
+    	int[] sel = b.selection();
+    	int n = 0;
+    	if (_operand instanceof IntField) {
+    		int[] col = b.intColumn(_field);
+    		int v = ((IntField) _operand).getValue();
+    		for (int k = 0; k < b.numSelected(); k++) {
+    			int r = sel[k];
+    			if (IntField.compare(_op, col[r], v))
+    				sel[n++] = r;
+    		}
+    	} else {
+    		for (int k = 0; k < b.numSelected(); k++) {
+    			if (filter(b.get(k)))
+    				sel[n++] = sel[k];
+    		}
+    	}
+    	b.setNumSelected(n);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
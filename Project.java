@@ -5,12 +5,16 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchOpIterator childBatches;
+    private transient TupleBatch out;
+    private transient CompactTuple.Layout outLayout;
+    private transient TupleRing ring, batchRing; // output tuples in reuse mode
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -70,6 +74,13 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
+            if (getReuseTuples()) {
+                if (ring == null)
+                    ring = new TupleRing(td, TupleRing.TUPLE_SIZE);
+                CompactTuple newTuple = ring.next();
+                project(t, newTuple);
+                return newTuple;
+            }
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
@@ -80,6 +91,48 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Copies the projected fields of t into newTuple, ints without boxing.
+     */
+    private void project(Tuple t, CompactTuple newTuple) {
+        newTuple.setRecordId(t.getRecordId());
+        int n = td.numFields();
+        for (int i = 0; i < n; i++) {
+            int f = outFieldIds.get(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                newTuple.setInt(i, t.getInt(f));
+            else
+                newTuple.setField(i, t.getField(f));
+        }
+    }
+
+    /**
+     * Projects a whole batch of the child at once. Output tuples are
+     * CompactTuples, and int fields are copied without boxing.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (childBatches == null)
+            childBatches = BatchAdapter.of(child);
+        if (out == null) {
+            out = new TupleBatch();
+            outLayout = new CompactTuple.Layout(td);
+        }
+        TupleBatch in = childBatches.nextBatch();
+        if (in == null)
+            return null;
+
+        out.clear();
+        if (getReuseTuples() && batchRing == null)
+            batchRing = new TupleRing(td, out.capacity());
+        for (int k = 0; k < in.numSelected(); k++) {
+            CompactTuple newTuple = getReuseTuples() ? batchRing.next()
+                    : new CompactTuple(td, outLayout);
+            project(in.get(k), newTuple);
+            out.add(newTuple);
+        }
+        return out;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +143,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.childBatches = null;
 	}
     }
     
@@ -107,10 +107,13 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        BatchOpIterator root = BatchAdapter.of(op);
+        TupleBatch batch;
+        while ((batch = root.nextBatch()) != null) {
+            for (int i = 0; i < batch.numSelected(); i++) {
+                System.out.println(batch.get(i));
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -16,6 +16,8 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFile dbFile;
     private DbFileIterator dbiterator; // accesses tuples
+    private transient TupleBatch batch;
+    private transient TupleDesc aliasedTd; // getTupleDesc result for the current alias
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -57,6 +59,20 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.transId;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -72,12 +88,27 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.aliasedTd = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Limits this scan to some of the partitions of a partitioned table.
+     * Has no effect on other tables. Must be called before the scan is
+     * opened.
+     *
+     * @param keep
+     *            bit i is set if partition i should be scanned
+     * @see PartitionedFile#prune
+     */
+    public void restrictPartitions(BitSet keep) {
+        if (this.dbFile instanceof PartitionedFile)
+            this.dbiterator = ((PartitionedFile) this.dbFile).iterator(transId, keep);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         this.dbiterator.open();
     }
@@ -93,6 +124,9 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+        if (this.aliasedTd != null)
+            return this.aliasedTd;
+
         // get the original TupleDesc and get how many fields exist in it
         TupleDesc origTD = Database.getCatalog().getTupleDesc(this.tableId);
         int tdNumFields = origTD.numFields();
@@ -105,7 +139,8 @@ public class SeqScan implements OpIterator {
             newFields[i] = tableAlias + "." + origTD.getFieldName(i);
         }
 
-        return new TupleDesc(newTypes, newFields);
+        this.aliasedTd = TupleDesc.intern(new TupleDesc(newTypes, newFields));
+        return this.aliasedTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -117,6 +152,24 @@ public class SeqScan implements OpIterator {
         return this.dbiterator.next();
     }
 
+    /**
+     * Fills a columnar batch straight from the file iterator, without going
+     * through hasNext/next of this operator for every tuple. A HeapFile's
+     * iterator adds the tuples of each page in one go.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (this.batch == null)
+            this.batch = new TupleBatch(getTupleDesc());
+        this.batch.clear();
+        if (this.dbiterator instanceof HeapFileIterator) {
+            ((HeapFileIterator) this.dbiterator).fillBatch(this.batch);
+        } else {
+            while (!this.batch.isFull() && this.dbiterator.hasNext())
+                this.batch.add(this.dbiterator.next());
+        }
+        return this.batch.numSelected() == 0 ? null : this.batch;
+    }
+
     public void close() {
         this.dbiterator.close();
     }
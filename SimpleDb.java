@@ -7,6 +7,14 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // an optional trailing "-threads n" selects the parallel encoder
+            int numThreads = 1;
+            if (args.length >= 2 && args[args.length-2].equals("-threads")) {
+                numThreads = Integer.parseInt(args[args.length-1]);
+                String[] rest = new String[args.length-2];
+                System.arraycopy(args, 0, rest, 0, rest.length);
+                args = rest;
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -30,10 +38,9 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
+                        Type t = Type.forName(s);
+                        if (t != null)
+                            ts[index++]=t;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -43,7 +50,11 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (numThreads > 1)
+                HeapFileEncoder.convertParallel(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,numThreads);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
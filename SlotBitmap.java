@@ -0,0 +1,35 @@
+package simpledb;
+
+/**
+ * Helpers for walking the header bitmap of a slotted page (HeapPage,
+ * BTreeLeafPage) 64 slots at a time. Bit i%8 of header byte i/8 is set when
+ * slot i is used, so reading eight header bytes little-endian gives a long in
+ * which bit k stands for slot 64*w+k. Page iterators use
+ * Long.numberOfTrailingZeros on these words to jump straight to the next used
+ * slot instead of testing slots one by one.
+ */
+final class SlotBitmap {
+
+    private SlotBitmap() {
+    }
+
+    /**
+     * @return the number of 64-slot words needed to cover numSlots slots
+     */
+    static int numWords(int numSlots) {
+        return (numSlots + 63) >>> 6;
+    }
+
+    /**
+     * Returns slots 64*w to 64*w+63 of the header as a long, with slot 64*w
+     * in the lowest bit. Bytes past the end of the header read as zero.
+     */
+    static long word(byte[] header, int w) {
+        int b = w << 3;
+        int n = Math.min(8, header.length - b);
+        long word = 0;
+        for (int k = 0; k < n; k++)
+            word |= (header[b + k] & 0xFFL) << (k << 3);
+        return word;
+    }
+}
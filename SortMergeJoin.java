@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The Join operator implements the relational join operation.
+ * <p>
+ * This one is a sort-merge join. Both inputs are read in ascending order of
+ * their join field: an input that is already sorted that way (see
+ * {@link #isSortedOn}) is used as it is, any other is sorted by an
+ * {@link OrderBy} first. For an equality predicate the inputs are merged in
+ * one pass, keeping only the current run of equal child2 tuples in memory so
+ * that left tuples with the same key join against it without rescanning
+ * child2. For the range predicates (LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN,
+ * GREATER_THAN_OR_EQ) the part of child2 matching each left tuple is a prefix
+ * or suffix whose bound only moves forward as child1 is read. As those parts
+ * can be as large as child2, the sorted child2 is written to a
+ * {@link SpillFile} once, and each part is read back from it.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private OpIterator left, right; // the children, sorted on the join fields
+    private TupleDesc comboTD;
+    private transient TupleRing ring; // output tuples in reuse mode
+
+    private transient Tuple leftTuple;
+    // equality: the child2 tuples equal to the key of leftTuple
+    private transient ArrayList<Tuple> run;
+    private transient Tuple rightNext; // first child2 tuple after run
+    // range predicates: all of child2, and the bound of the matching part
+    private transient SpillFile rightFile;
+    private transient int bound;
+    private transient Tuple boundTuple; // child2 tuple number bound, or null at the end
+    private transient SpillFile.Reader boundReader; // reads the tuples after boundTuple
+    private transient SpillFile.Reader matches; // reads the part matching leftTuple
+    private transient int pos; // next tuple of run, or of the matching part, to join
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS
+                || p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("cannot merge join on "
+                    + p.getOperator());
+        this.pred = p;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if the tuples of it come in ascending order of the given
+     *         field: it is an ascending OrderBy or a BTreeScan on that field,
+     *         or a SeqScan of a BTreeFile keyed on it, possibly below Filters
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        // a BTreeFile is scanned leaf by leaf, in key order
+        if (IndexNestedLoopJoin.isIndexed(it, field))
+            return true;
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC()
+                    && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        return false;
+    }
+
+    private static OpIterator sorted(OpIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left.open();
+        right.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        right.close();
+        left.close();
+        leftTuple = null;
+        run = null;
+        rightNext = null;
+        closeReaders();
+        if (rightFile != null) {
+            rightFile.delete();
+            rightFile = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        if (rightFile == null)
+            right.rewind();
+        start();
+    }
+
+    private void closeReaders() {
+        if (boundReader != null) {
+            boundReader.close();
+            boundReader = null;
+        }
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        leftTuple = null;
+        pos = 0;
+        bound = 0;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            run = new ArrayList<Tuple>();
+            rightNext = nextRight();
+        } else {
+            if (rightFile == null) {
+                rightFile = new SpillFile(right.getTupleDesc());
+                while (right.hasNext())
+                    rightFile.add(right.next());
+            }
+            closeReaders();
+            boundReader = rightFile.reader();
+            boundTuple = boundReader.next();
+        }
+    }
+
+    private Tuple nextRight() throws DbException, TransactionAbortedException {
+        return right.hasNext() ? right.next().detach() : null;
+    }
+
+    /**
+     * Compares the join field of a child1 tuple with that of a child2 tuple.
+     *
+     * @return a negative number, zero or a positive number as l is less than,
+     *         equal to or greater than r on the join fields
+     */
+    private int compareKeys(Tuple l, Tuple r) {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        if (l.getTupleDesc().getFieldType(f1) == Type.INT_TYPE)
+            return Integer.compare(l.getInt(f1), r.getInt(f2));
+        Field a = l.getField(f1), b = r.getField(f2);
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the joining child1 and
+     * child2 tuples, in the order of the child1 join field.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return nextEquals();
+        return nextRange();
+    }
+
+    private Tuple nextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (leftTuple != null && pos < run.size())
+                return joinTuples(leftTuple, run.get(pos++));
+            if (!left.hasNext())
+                return null;
+            leftTuple = left.next();
+            pos = 0;
+            if (!run.isEmpty() && compareKeys(leftTuple, run.get(0)) == 0)
+                continue; // same key as the last left tuple
+            run.clear();
+            while (rightNext != null && compareKeys(leftTuple, rightNext) > 0)
+                rightNext = nextRight();
+            while (rightNext != null && compareKeys(leftTuple, rightNext) == 0) {
+                run.add(rightNext);
+                rightNext = nextRight();
+            }
+        }
+    }
+
+    private Tuple nextRange() throws TransactionAbortedException, DbException {
+        boolean prefix = pred.getOperator() == Predicate.Op.GREATER_THAN
+                || pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+        while (true) {
+            if (matches != null) {
+                Tuple r = prefix && pos == bound ? null : matches.next();
+                if (r != null) {
+                    pos++;
+                    return joinTuples(leftTuple, r);
+                }
+                matches.close();
+                matches = null;
+            }
+            if (!left.hasNext())
+                return null;
+            leftTuple = left.next();
+            // move bound past the child2 tuples that are less than (or, for
+            // GREATER_THAN_OR_EQ and LESS_THAN, equal to) the left key
+            boolean orEqual = pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ
+                    || pred.getOperator() == Predicate.Op.LESS_THAN;
+            while (boundTuple != null) {
+                int c = compareKeys(leftTuple, boundTuple);
+                if (c < 0 || (c == 0 && !orEqual))
+                    break;
+                boundTuple = boundReader.next();
+                bound++;
+            }
+            if (prefix ? bound > 0 : bound < rightFile.size()) {
+                matches = rightFile.reader(prefix ? 0 : bound);
+                pos = 0;
+            }
+        }
+    }
+
+    private Tuple joinTuples(Tuple l, Tuple r) {
+        int n1 = l.getTupleDesc().numFields();
+        int n2 = r.getTupleDesc().numFields();
+        Tuple t;
+        if (getReuseTuples()) { // fill a recycled tuple instead of allocating one
+            if (ring == null)
+                ring = new TupleRing(comboTD, TupleRing.TUPLE_SIZE);
+            t = ring.next();
+        } else
+            t = new Tuple(comboTD);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, l.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, r.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        left = sorted(child1, pred.getField1());
+        right = sorted(child2, pred.getField2());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
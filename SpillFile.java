@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A temporary file of tuples, written by an operator whose input does not fit
+ * in memory and read back later. Tuples are stored back to back in the format
+ * of Field.serialize, so every record has the size of the TupleDesc and is
+ * read back into a CompactTuple.
+ * <p>
+ * Tuples are first written with {@link #add}; once {@link #reader} has been
+ * called the file is read-only and may be read any number of times. The file
+ * is removed by {@link #delete}, or when the JVM exits.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final CompactTuple.Layout layout;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples with schema td.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        this.layout = new CompactTuple.Layout(td);
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends t, whose fields must all be set, to the file.
+     */
+    void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is already being read");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finishes writing, if necessary, and opens the file for reading from
+     * the start.
+     */
+    Reader reader() throws DbException {
+        return reader(0);
+    }
+
+    /**
+     * Finishes writing, if necessary, and opens the file for reading from
+     * the tuple with the given number, counting from 0 in the order the
+     * tuples were added.
+     */
+    Reader reader(int from) throws DbException {
+        if (from < 0 || from > size)
+            throw new IllegalArgumentException("no tuple " + from + " in spill file");
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader(from);
+        } catch (IOException e) {
+            throw new DbException("cannot read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the file. The spill file may not be used afterwards.
+     */
+    void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    /**
+     * Reads the tuples of a spill file in the order they were added.
+     */
+    class Reader {
+        private final DataInputStream in;
+        private final byte[] record = new byte[td.getSize()];
+        private final ByteBuffer buf = ByteBuffer.wrap(record);
+        private int remaining;
+
+        private Reader(int from) throws IOException {
+            // every record has the same size, so tuple from is easy to find
+            FileInputStream fin = new FileInputStream(file);
+            fin.getChannel().position((long) from * record.length);
+            in = new DataInputStream(new BufferedInputStream(fin, BUFFER_SIZE));
+            remaining = size - from;
+        }
+
+        /**
+         * @return the next tuple, a new one the caller may keep, or null if
+         *         all tuples have been read
+         */
+        Tuple next() throws DbException {
+            if (remaining == 0)
+                return null;
+            try {
+                in.readFully(record);
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            remaining--;
+            CompactTuple t = new CompactTuple(td, layout);
+            t.readFields(buf, 0);
+            return t;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+}
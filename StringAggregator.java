@@ -53,6 +53,19 @@ public class StringAggregator implements Aggregator {
     	count.put(tupleGroupByField, count.get(tupleGroupByField)+1);
     }
 
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+      Field tupleGroupByField = gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField);
+      Integer c = count.get(tupleGroupByField);
+      if (c == null) // a new group
+        return false;
+      count.put(tupleGroupByField, c+1);
+      return true;
+    }
+
+    public int numGroups() {
+      return count.size();
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -1,24 +1,39 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ * <p>
+ * The string is kept as the bytes it has on disk, one byte per character
+ * (ISO-8859-1), possibly as a slice of a larger array such as the one a
+ * tuple was read into. Comparison, hashing and LIKE work on the bytes
+ * directly; a java.lang.String is only built when {@link #getValue} or
+ * {@link #toString} asks for one.
  */
 public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
-	private final String value;
+	private final byte[] bytes;
+	private final int offset;
+	private final int length;
 	private final int maxSize;
+	private transient String value; // built on demand
 
 	public String getValue() {
-		return value;
+		String v = value;
+		if (v == null) {
+			v = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+			value = v;
+		}
+		return v;
 	}
 
 	/**
 	 * Constructor.
-	 * 
+	 *
 	 * @param s
 	 *            The value of this field.
 	 * @param maxSize
@@ -28,48 +43,154 @@ public class StringField implements Field {
 		this.maxSize = maxSize;
 
 		if (s.length() > maxSize)
-			value = s.substring(0, maxSize);
-		else
-			value = s;
+			s = s.substring(0, maxSize);
+		// one byte per char, as DataOutputStream.writeBytes stores them
+		this.bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) s.charAt(i);
+		this.offset = 0;
+		this.length = bytes.length;
+	}
+
+	/**
+	 * Constructor that wraps bytes[offset .. offset+length) without copying
+	 * them. The caller must not change those bytes afterwards.
+	 *
+	 * @param bytes
+	 *            The array holding the value of this field.
+	 * @param offset
+	 *            Where the value starts in bytes
+	 * @param length
+	 *            The length of the value in bytes; cut to maxSize if longer
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public StringField(byte[] bytes, int offset, int length, int maxSize) {
+		this.maxSize = maxSize;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = Math.min(length, maxSize);
+	}
+
+	/**
+	 * @return the length of this string in bytes
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Copies up to maxLen bytes of this string into dst, starting at
+	 * dstOffset.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public int copyBytes(byte[] dst, int dstOffset, int maxLen) {
+		int n = Math.min(length, maxLen);
+		System.arraycopy(bytes, offset, dst, dstOffset, n);
+		return n;
 	}
 
 	public String toString() {
-		return value;
+		return getValue();
 	}
 
+	/**
+	 * Same value as getValue().hashCode(), computed from the bytes.
+	 */
 	public int hashCode() {
-		return value.hashCode();
+		int h = 0;
+		for (int i = offset; i < offset + length; i++)
+			h = 31 * h + (bytes[i] & 0xFF);
+		return h;
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		StringField other = (StringField) field;
+		if (other.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (bytes[offset + i] != other.bytes[other.offset + i])
+				return false;
+		}
+		return true;
 	}
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
 	 * remainder padded with 0 to maxSize.
-	 * 
+	 *
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
-		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
+		int len = Math.min(length, maxSize);
+		dos.writeInt(len);
+		dos.write(bytes, offset, len);
+		for (int overflow = maxSize - len; overflow > 0; overflow--)
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Compares the bytes of this string and val as unsigned values, which
+	 * orders them the same way String.compareTo orders their values.
+	 */
+	private int compareBytes(StringField val) {
+		int n = Math.min(length, val.length);
+		for (int i = 0; i < n; i++) {
+			int c = (bytes[offset + i] & 0xFF) - (val.bytes[val.offset + i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return length - val.length;
+	}
+
+	/**
+	 * Compares this string with val in the order of String.compareTo.
+	 *
+	 * @return a negative number, zero or a positive number as this string is
+	 *         less than, equal to or greater than val
+	 */
+	public int compareTo(StringField val) {
+		return compareBytes(val);
+	}
+
+	/**
+	 * Packs the first 8 bytes of this string, padded with zeros, into a long.
+	 * Compared as unsigned numbers, the prefixes of two strings are ordered
+	 * like the strings, except that strings sharing their first 8 bytes may
+	 * have equal prefixes.
+	 */
+	public long prefix() {
+		long p = 0;
+		for (int i = 0; i < 8; i++) {
+			p <<= 8;
+			if (i < length)
+				p |= bytes[offset + i] & 0xFF;
+		}
+		return p;
+	}
+
+	/**
+	 * @return true if val occurs somewhere in this string
+	 */
+	private boolean containsBytes(StringField val) {
+		outer:
+		for (int i = 0; i + val.length <= length; i++) {
+			for (int j = 0; j < val.length; j++) {
+				if (bytes[offset + i + j] != val.bytes[val.offset + j])
+					continue outer;
+			}
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
-	 * 
+	 *
 	 * @throws IllegalCastException
 	 *             if val is not a StringField
 	 * @see Field#compare
@@ -77,29 +198,28 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
 
 		switch (op) {
 		case EQUALS:
-			return cmpVal == 0;
+			return equals(iVal);
 
 		case NOT_EQUALS:
-			return cmpVal != 0;
+			return !equals(iVal);
 
 		case GREATER_THAN:
-			return cmpVal > 0;
+			return compareBytes(iVal) > 0;
 
 		case GREATER_THAN_OR_EQ:
-			return cmpVal >= 0;
+			return compareBytes(iVal) >= 0;
 
 		case LESS_THAN:
-			return cmpVal < 0;
+			return compareBytes(iVal) < 0;
 
 		case LESS_THAN_OR_EQ:
-			return cmpVal <= 0;
+			return compareBytes(iVal) <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return containsBytes(iVal);
 		}
 
 		return false;
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY followed by LIMIT n: it returns
+ * the first n tuples of its child in the order of one field. Instead of
+ * sorting the whole child it keeps a heap of the n best tuples seen so far,
+ * whose root is the worst of them, and drops every tuple that does not beat
+ * the root; only tuples that make it into the heap are copied.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private int limit;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param limit
+     *            the number of tuples to return
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int limit, int orderbyField, boolean asc, OpIterator child) {
+        this(limit, new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new TopN node that sorts on several fields.
+     *
+     * @param limit
+     *            the number of tuples to return
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int limit, int[] orderbyFields, boolean[] asc, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+        this.orderByFields = orderbyFields;
+        this.asc = asc;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return true if the first sort field is sorted ascending
+     */
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    /**
+     * @return the first sort field
+     */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields;
+    }
+
+    public boolean[] getAscending() {
+        return asc;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top.clear();
+        if (limit > 0) {
+            final TupleComparator order = new TupleComparator(orderByFields, asc);
+            // the root of the heap is the tuple that sorts last
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(
+                    Math.min(limit, 1024), new Comparator<Tuple>() {
+                        public int compare(Tuple a, Tuple b) {
+                            return order.compare(b, a);
+                        }
+                    });
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t.detach());
+                } else if (order.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t.detach());
+                }
+            }
+            top.addAll(heap);
+            order.sort(top);
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        top.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the top tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -19,6 +19,7 @@ public class Tuple implements Serializable {
     private RecordId _rid; //to maintain record id
     private TupleDesc _td; //to define the descriptor of this tuple
     private ArrayList<Field> _fields; //for the actual fields
+    private boolean _recycled; //owned by an operator in reuse mode, see detach()
     //using an arrayList for this rather than linked list because accessing random fields/columns will occur more often that adding/deleting fields/columns
     //using array list instead of array to keep the possibility of changing the size later
     
@@ -39,6 +40,32 @@ public class Tuple implements Serializable {
             _fields.add(null);
     }
 
+    /**
+     * Marks the constructor for subclasses that store their fields
+     * themselves; {@link #NO_FIELD_LIST} is its only instance.
+     */
+    protected static final class NoFieldList {
+        private NoFieldList() {
+        }
+    }
+
+    protected static final NoFieldList NO_FIELD_LIST = new NoFieldList();
+
+    /**
+     * Constructor for subclasses that store their fields themselves; no
+     * field list is allocated, so subclasses must override setField,
+     * getField and fields.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param noFieldList
+     *            {@link #NO_FIELD_LIST}
+     */
+    protected Tuple(TupleDesc td, NoFieldList noFieldList) {
+    	_td = td;
+    	_fields = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -95,6 +122,96 @@ public class Tuple implements Serializable {
 		return _fields.get(i); //taken care of null in the constructor
     }
 
+    /**
+     * Returns the value of the ith field, which must be a set field of
+     * INT_TYPE. Operators should prefer this over getField on hot paths:
+     * compact tuples answer it without materializing an IntField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @see CompactTuple
+     */
+    public int getInt(int i) {
+    	return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a set field of
+     * STRING_TYPE.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public String getString(int i) {
+    	return ((StringField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a set field of
+     * LONG_TYPE.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public long getLong(int i) {
+    	return ((LongField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a set field of
+     * DOUBLE_TYPE.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public double getDouble(int i) {
+    	return ((DoubleField) getField(i)).getValue();
+    }
+
+    /**
+     * Marks this tuple as one that its creator overwrites with later rows.
+     * Only operators in tuple reuse mode call this.
+     *
+     * @see Operator#setReuseTuples
+     */
+    void markRecycled() {
+    	_recycled = true;
+    }
+
+    /**
+     * @return true if this tuple belongs to an operator in tuple reuse mode,
+     *         which will overwrite it with a later row.
+     */
+    public boolean isRecycled() {
+    	return _recycled;
+    }
+
+    /**
+     * Returns a tuple with the contents of this one that the caller may keep
+     * for as long as it likes. Operators that hold on to their input tuples
+     * (e.g. to sort or hash them) must call this on every tuple they keep.
+     *
+     * @return this tuple, or a copy of it if it is recycled.
+     */
+    public Tuple detach() {
+    	return _recycled ? copy() : this;
+    }
+
+    /**
+     * @return a new, non-recycled tuple with the same schema, fields and
+     *         RecordId as this one.
+     */
+    protected Tuple copy() {
+    	Tuple t = new Tuple(_td);
+    	for (int i = 0; i < _td.numFields(); i++) {
+    		Field f = getField(i);
+    		if (f != null)
+    			t.setField(i, f);
+    	}
+    	t.setRecordId(_rid);
+    	return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -104,11 +221,12 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
+    	int n = _td.numFields();
     	String s = "";
-    	for (int i = 0; i < _fields.size()-1; i++){
-    		s += _fields.get(i) + "\t";
+    	for (int i = 0; i < n-1; i++){
+    		s += getField(i) + "\t";
     	}
-    	s += _fields.get(_fields.size()-1) + "\n"; //for the last field
+    	s += getField(n-1) + "\n"; //for the last field
     	return s;
     }
 
@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A batch of up to {@link #capacity} tuples passed between operators by
+ * {@link BatchOpIterator#nextBatch}. Operators work on a whole batch per call
+ * instead of paying several virtual calls per tuple.
+ * <p>
+ * A batch holds the rows it was filled with plus a selection vector listing,
+ * in order, the rows that are still live. Filtering a batch only shrinks the
+ * selection vector; rows are never moved. Int columns can also be read as
+ * plain arrays with {@link #intColumn}, which lets predicates run as tight
+ * loops over unboxed values.
+ * <p>
+ * Rows are kept as Tuples, so that operators that pass rows on unchanged do
+ * not have to rebuild them. A batch built for a schema (see
+ * {@link #TupleBatch(TupleDesc)}) is also columnar for its INT_TYPE fields:
+ * their values are copied into the columns as each row is added, straight
+ * from the int array of a {@link CompactTuple}. Other batches build an int
+ * column from the rows the first time it is asked for.
+ */
+public class TupleBatch {
+
+    /** Default number of rows per batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Tuple[] rows;
+    private final int[] sel;
+    private int size; // number of rows filled
+    private int selected; // number of live rows, listed in sel[0..selected)
+    private int[][] intColumns; // per field, values of rows 0..size-1, filled on demand
+    private int[] filledFields; // INT_TYPE fields of a columnar batch
+    private int[][] filledColumns; // per field in filledFields, filled by add
+
+    /**
+     * Creates an empty batch with the default capacity.
+     */
+    public TupleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch holding at most capacity rows.
+     */
+    public TupleBatch(int capacity) {
+        this.rows = new Tuple[capacity];
+        this.sel = new int[capacity];
+    }
+
+    /**
+     * Creates an empty columnar batch, with the default capacity, for rows
+     * with schema td.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty columnar batch holding at most capacity rows with
+     * schema td. All INT_TYPE fields of the rows added must be set.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(capacity);
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        }
+        filledFields = new int[n];
+        filledColumns = new int[td.numFields()][];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                filledFields[n++] = i;
+                filledColumns[i] = new int[capacity];
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of rows this batch holds
+     */
+    public int capacity() {
+        return rows.length;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return size == rows.length;
+    }
+
+    /**
+     * @return the number of live rows
+     */
+    public int numSelected() {
+        return selected;
+    }
+
+    /**
+     * Appends a live row to this batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        rows[size] = t;
+        if (filledFields != null)
+            fillColumns(t, size);
+        sel[selected++] = size;
+        size++;
+        intColumns = null;
+    }
+
+    /**
+     * Copies the INT_TYPE fields of t, row number r, into the columns of a
+     * columnar batch.
+     */
+    private void fillColumns(Tuple t, int r) {
+        if (t instanceof CompactTuple) {
+            int[] values = ((CompactTuple) t).intValues();
+            for (int f : filledFields)
+                filledColumns[f][r] = values[f];
+        } else {
+            for (int f : filledFields)
+                filledColumns[f][r] = t.getInt(f);
+        }
+    }
+
+    /**
+     * Returns the kth live row.
+     *
+     * @param k
+     *            an index between 0 and numSelected() - 1
+     */
+    public Tuple get(int k) {
+        if (k < 0 || k >= selected)
+            throw new NoSuchElementException();
+        return rows[sel[k]];
+    }
+
+    /**
+     * Returns the selection vector: entries 0 to numSelected() - 1 are the row
+     * numbers of the live rows, in increasing order. Callers that drop rows
+     * compact the live ones to the front and then call
+     * {@link #setNumSelected}.
+     */
+    int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Sets the number of live rows after the selection vector was narrowed.
+     */
+    void setNumSelected(int n) {
+        if (n < 0 || n > selected)
+            throw new IllegalArgumentException("can only drop rows from a selection");
+        selected = n;
+    }
+
+    /**
+     * Returns the values of an INT_TYPE field for every row of this batch,
+     * indexed by row number (as found in the selection vector). In a columnar
+     * batch the column is already there; otherwise it is built on first use
+     * and kept until the batch is cleared or added to.
+     */
+    int[] intColumn(int field) {
+        if (filledColumns != null && filledColumns[field] != null)
+            return filledColumns[field];
+        if (intColumns == null)
+            intColumns = new int[rows[0] == null ? 0 : rows[0].getTupleDesc().numFields()][];
+        int[] col = intColumns[field];
+        if (col == null) {
+            col = new int[size];
+            for (int k = 0; k < selected; k++) {
+                int r = sel[k];
+                col[r] = rows[r].getInt(field);
+            }
+            intColumns[field] = col;
+        }
+        return col;
+    }
+
+    /**
+     * Empties this batch so that it can be filled again.
+     */
+    public void clear() {
+        java.util.Arrays.fill(rows, 0, size, null);
+        size = 0;
+        selected = 0;
+        intColumns = null;
+    }
+}
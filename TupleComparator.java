@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Orders tuples on one or more fields, each ascending or descending. How each
+ * field is compared is picked once, from the schema of the first tuple
+ * compared: int, long and double fields are compared unboxed and string
+ * fields byte by byte, so no comparison goes through Field.compare.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    // how a field is compared
+    private static final int INT = 0, LONG = 1, DOUBLE = 2, STRING = 3, OTHER = 4;
+
+    final int[] fields;
+    final boolean[] asc;
+    private int[] kinds; // set on first use
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * @param fields
+     *            the fields to order on, most significant first
+     * @param asc
+     *            for each field, true if it is sorted ascending
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need a direction for each of at least one field");
+        this.fields = fields;
+        this.asc = asc;
+    }
+
+    private void resolve(TupleDesc td) {
+        int[] k = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Type type = td.getFieldType(fields[i]);
+            if (type == Type.INT_TYPE)
+                k[i] = INT;
+            else if (type == Type.LONG_TYPE)
+                k[i] = LONG;
+            else if (type == Type.DOUBLE_TYPE)
+                k[i] = DOUBLE;
+            else if (type == Type.STRING_TYPE)
+                k[i] = STRING;
+            else
+                k[i] = OTHER;
+        }
+        kinds = k;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        if (kinds == null)
+            resolve(o1.getTupleDesc());
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareField(i, o1, o2);
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares the ith sort field of two tuples, in ascending order.
+     */
+    private int compareField(int i, Tuple o1, Tuple o2) {
+        int f = fields[i];
+        switch (kinds[i]) {
+        case INT:
+            return Integer.compare(o1.getInt(f), o2.getInt(f));
+        case LONG:
+            return Long.compare(o1.getLong(f), o2.getLong(f));
+        case DOUBLE:
+            return Double.compare(o1.getDouble(f), o2.getDouble(f));
+        case STRING:
+            return ((StringField) o1.getField(f)).compareTo(
+                    (StringField) o2.getField(f));
+        default:
+            Field t1 = o1.getField(f);
+            Field t2 = o2.getField(f);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+        }
+    }
+
+    /**
+     * A tuple and the prefix of its first sort field.
+     */
+    private static class Prefixed {
+        final long prefix;
+        final Tuple t;
+
+        Prefixed(long prefix, Tuple t) {
+            this.prefix = prefix;
+            this.t = t;
+        }
+    }
+
+    /**
+     * Sorts tuples in this order. When the first sort field is a string, its
+     * {@link StringField#prefix} is computed once per tuple, and most
+     * comparisons are decided on those longs without touching the tuples.
+     */
+    void sort(List<Tuple> tuples) {
+        if (tuples.isEmpty())
+            return;
+        if (kinds == null)
+            resolve(tuples.get(0).getTupleDesc());
+        if (kinds[0] != STRING) {
+            Collections.sort(tuples, this);
+            return;
+        }
+        Prefixed[] keyed = new Prefixed[tuples.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            Tuple t = tuples.get(i);
+            long prefix = ((StringField) t.getField(fields[0])).prefix();
+            // inverting the bits reverses the unsigned order
+            keyed[i] = new Prefixed(asc[0] ? prefix : ~prefix, t);
+        }
+        Arrays.sort(keyed, new Comparator<Prefixed>() {
+            public int compare(Prefixed a, Prefixed b) {
+                int c = Long.compareUnsigned(a.prefix, b.prefix);
+                return c != 0 ? c : TupleComparator.this.compare(a.t, b.t);
+            }
+        });
+        for (int i = 0; i < keyed.length; i++)
+            tuples.set(i, keyed[i].t);
+    }
+}
@@ -1,10 +1,19 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 /**
  * TupleDesc describes the schema of a tuple.
+ * <p>
+ * TupleDescs are immutable. Everything derived from the fields (byte offsets,
+ * size, hash code, and an index from field name to position) is computed once
+ * in the constructor. {@link #intern} returns one canonical instance per list
+ * of types and names, so that equal schemas can be compared by reference.
+ * Canonical instances are only weakly held, so the schemas of, say, the table
+ * aliases of past queries do not stay in memory once nothing uses them.
  */
 public class TupleDesc implements Serializable {
 
@@ -40,13 +49,25 @@ public class TupleDesc implements Serializable {
      *        An iterator which iterates over all the field TDItems
      *        that are included in this TupleDesc
      * */
-    public Vector<TDItem> td_Vector; //using vector data structure to store the TD items
+    private final TDItem[] items; //using an array since the fields never change
     public Iterator<TDItem> iterator() {
-        return td_Vector.iterator(); 
+        return Collections.unmodifiableList(Arrays.asList(items)).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
+    private final int[] offsets; // byte offset of each field within a serialized tuple
+    private final int size;
+    private final int hash;
+    private final HashMap<String, Integer> nameToIndex; // first field with each (non-null) name
+
+    // canonical instances, keyed by their types and names; guarded by the class
+    private static final HashMap<InternKey, InternRef> interned =
+            new HashMap<InternKey, InternRef>();
+    // references to canonical instances that have been collected
+    private static final ReferenceQueue<TupleDesc> collected =
+            new ReferenceQueue<TupleDesc>();
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -60,13 +81,24 @@ public class TupleDesc implements Serializable {
      */
     //constructor
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-    	if(typeAr.length>=1 && typeAr.length == fieldAr.length) {
-			td_Vector = new Vector<TDItem>(typeAr.length); // create vector of the size
-	        for (int i = 0; i < typeAr.length; i++){ 
-	        	td_Vector.add(new TDItem(typeAr[i], fieldAr[i])); // loop over the vector and fill the vector with appropriate data
-	        }
+    	if (typeAr.length != fieldAr.length)
+    		throw new IllegalArgumentException("type and name arrays differ in length");
+    	items = new TDItem[typeAr.length];
+    	offsets = new int[typeAr.length];
+    	nameToIndex = new HashMap<String, Integer>();
+    	int off = 0;
+    	int h = typeAr.length;
+    	for (int i = 0; i < typeAr.length; i++){
+    		items[i] = new TDItem(typeAr[i], fieldAr[i]);
+    		offsets[i] = off;
+    		off += typeAr[i].getLen();
+    		h = 31 * h + typeAr[i].ordinal(); // ordinal, not hashCode, so the hash survives serialization
+    		if (fieldAr[i] != null && !nameToIndex.containsKey(fieldAr[i]))
+    			nameToIndex.put(fieldAr[i], i);
     	}
-}
+    	size = off;
+    	hash = h;
+    }
 
 
     /**
@@ -78,19 +110,89 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-    	if(typeAr.length>=1) {
-	    	td_Vector = new Vector<TDItem>(typeAr.length); // create vector of the size
-	        for (int i = 0; i < typeAr.length; i++){ 
-	        	td_Vector.add(new TDItem(typeAr[i], null)); // loop over the vector and fill the vector with appropriate data
-	        }
+    	this(typeAr, new String[typeAr.length]);
+    }
+
+    /**
+     * Returns the canonical TupleDesc with the same field types and names as
+     * td. All TupleDescs interned from equal type and name lists are the same
+     * object, so they pass equals without comparing field by field.
+     *
+     * @param td
+     *            the TupleDesc to intern
+     * @return the canonical instance
+     */
+    public static synchronized TupleDesc intern(TupleDesc td) {
+    	// forget the instances that have been collected since the last call
+    	InternRef gone;
+    	while ((gone = (InternRef) collected.poll()) != null) {
+    		if (interned.get(gone.key) == gone)
+    			interned.remove(gone.key);
+    	}
+    	InternKey key = new InternKey(td);
+    	InternRef ref = interned.get(key);
+    	TupleDesc prev = ref == null ? null : ref.get();
+    	if (prev != null)
+    		return prev;
+    	interned.put(key, new InternRef(td, key));
+    	return td;
+    }
+
+    /**
+     * The types and names of an interned TupleDesc, for {@link #intern}. It
+     * shares the TupleDesc's field items but not the TupleDesc itself, so it
+     * does not keep the TupleDesc from being collected.
+     */
+    private static final class InternKey {
+    	private final TDItem[] items;
+    	private final int hash;
+
+    	InternKey(TupleDesc td) {
+    		this.items = td.items;
+    		this.hash = 31 * td.hash + Arrays.hashCode(td.fieldNames());
+    	}
+
+    	public int hashCode() {
+    		return hash;
+    	}
+
+    	public boolean equals(Object o) {
+    		if (!(o instanceof InternKey))
+    			return false;
+    		TDItem[] other = ((InternKey) o).items;
+    		if (other.length != items.length)
+    			return false;
+    		for (int i = 0; i < items.length; i++) {
+    			if (items[i].fieldType != other[i].fieldType
+    					|| !Objects.equals(items[i].fieldName, other[i].fieldName))
+    				return false;
+    		}
+    		return true;
+    	}
+    }
+
+    /** A weak reference to an interned TupleDesc that knows its key. */
+    private static final class InternRef extends WeakReference<TupleDesc> {
+    	final InternKey key;
+
+    	InternRef(TupleDesc td, InternKey key) {
+    		super(td, collected);
+    		this.key = key;
     	}
     }
 
+    private String[] fieldNames() {
+    	String[] names = new String[items.length];
+    	for (int i = 0; i < items.length; i++)
+    		names[i] = items[i].fieldName;
+    	return names;
+    }
+
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-        return td_Vector.size();
+        return items.length;
     }
 
     /**
@@ -107,7 +209,7 @@ public class TupleDesc implements Serializable {
     		throw new NoSuchElementException();
     	}
     	
-        return td_Vector.get(i).fieldName;
+        return items[i].fieldName;
     }
 
     /**
@@ -125,7 +227,7 @@ public class TupleDesc implements Serializable {
     		throw new NoSuchElementException();
     	}
     	
-        return td_Vector.get(i).fieldType;
+        return items[i].fieldType;
     }
 
     /**
@@ -141,30 +243,11 @@ public class TupleDesc implements Serializable {
     	if (name == null) { //if the given name passed as parameter is a NULL 
     		throw new NoSuchElementException("field name is null"); 
     	}
-   	
-    	if (name instanceof String)
-    	{
-    		boolean allNULL = true;
-	    	//boolean found = false;
-	    	for (int i = 0; i < numFields(); i++) {
-	    		if (td_Vector.get(i).fieldName == null)
-	    			continue;
-	    		allNULL = false;
-	    		if (td_Vector.get(i).fieldName.equals(name)) {
-	    			//found = true;
-	    			return i;
-	    		}
-	    	}
-	    	
-	    	if (allNULL)
-	    		throw new NoSuchElementException("all fields are null"); 
-	    		
-//	    	if (!found){
-//	    		throw new NoSuchElementException(); 
-//	    	}
-    	}
-   
-    	throw new NoSuchElementException();  	
+
+    	Integer i = nameToIndex.get(name);
+    	if (i == null)
+    		throw new NoSuchElementException();
+    	return i;
     }
 
     /**
@@ -172,13 +255,25 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-    	int size = 0;
-    	for (int i = 0; i < numFields(); i++) {
-    		size += td_Vector.get(i).fieldType.getLen();
-    	}
         return size;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+    	if (i<0 || i>=numFields()){ //if out of bounds, throw exception
+    		throw new NoSuchElementException();
+    	}
+
+    	return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -231,6 +326,10 @@ public class TupleDesc implements Serializable {
     	// then it's equal
     	// myTupleDesc.equals(otherTupleDesc) --> true / false
     	
+    	if (o == this) { //same instance, e.g. both interned
+    		return true;
+    	}
+
     	if (o == null) {
     		return false;
     	}
@@ -242,8 +341,8 @@ public class TupleDesc implements Serializable {
     	//if it is an instance of TupleDesc, then type cast it so that we can use its functions/methods
     	TupleDesc o_td = (TupleDesc)o;
     	
-    	//if the number of fields aren't the same
-    	if (this.numFields() != o_td.numFields()) {
+    	//if the number of fields or the hashes aren't the same
+    	if (this.numFields() != o_td.numFields() || this.hash != o_td.hash) {
     		return false;
     	}
     	
@@ -258,9 +357,8 @@ public class TupleDesc implements Serializable {
     }
 
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        // equal TupleDescs have the same types, and the hash only depends on types
+        return hash;
     }
 
     /**
@@ -275,7 +373,7 @@ public class TupleDesc implements Serializable {
     	// and use the tditem.toString() method
     	String description = "";
     	for (int i = 0; i < this.numFields(); i++) {
-    		 description += (td_Vector.get(i).toString() + ", ");
+    		 description += (items[i].toString() + ", ");
     	}
     	
         return description;
@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * The output tuples of an operator in tuple reuse mode: a fixed set of
+ * recycled CompactTuples handed out in turn, so that the operator fills an
+ * existing tuple for each row instead of allocating a new one.
+ * <p>
+ * A ring of size n hands a tuple out again n calls after it was last handed
+ * out. Operators use a ring of {@link #TUPLE_SIZE} for next(), so a tuple stays
+ * valid across the look-ahead done by Operator.hasNext, and a ring of the
+ * batch capacity for nextBatch(), so every row of a batch is a distinct tuple
+ * until the next batch is produced.
+ *
+ * @see Operator#setReuseTuples
+ */
+final class TupleRing {
+
+    /** Ring size for operators that hand out one tuple at a time. */
+    static final int TUPLE_SIZE = 2;
+
+    private final CompactTuple[] tuples;
+    private int pos;
+
+    TupleRing(TupleDesc td, int size) {
+        CompactTuple.Layout layout = new CompactTuple.Layout(td);
+        tuples = new CompactTuple[size];
+        for (int i = 0; i < size; i++) {
+            tuples[i] = new CompactTuple(td, layout);
+            tuples[i].markRecycled();
+        }
+    }
+
+    /**
+     * @return the next tuple of the ring, still holding the values of the row
+     *         it was last filled with
+     */
+    CompactTuple next() {
+        CompactTuple t = tuples[pos];
+        pos = pos + 1 == tuples.length ? 0 : pos + 1;
+        return t;
+    }
+}
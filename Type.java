@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new IntField(Integer.parseInt(s.trim()));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -37,11 +48,73 @@ public enum Type implements Serializable {
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(bs, 0, strLen, STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = stringLength(buf, offset);
+            byte bs[] = new byte[strLen];
+            getBytes(buf, offset + 4, bs, 0, strLen);
+            return new StringField(bs, 0, strLen, STRING_LEN);
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new LongField(buf.getLong(offset));
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new LongField(Long.parseLong(s.trim()));
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new DoubleField(buf.getDouble(offset));
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new DoubleField(Double.parseDouble(s.trim()));
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +133,69 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Decodes a field of this type from buf, which holds it in the format
+   * written by Field.serialize, starting at the given absolute offset. The
+   * position of buf is not changed, so one buffer can be shared by several
+   * readers.
+   * @return a Field object of the same type as this object
+   * @param buf The buffer to read from; a heap or direct buffer in big-endian
+   *   order (the default), as Field.serialize writes
+   * @param offset Where the field starts in buf
+   * @throws IndexOutOfBoundsException if the field does not fit in buf
+   * @throws IllegalArgumentException if buf does not hold a valid value of
+   *   this type at offset
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * @return the length of the string field stored at offset in buf
+   * @throws IllegalArgumentException if it is not between 0 and STRING_LEN
+   */
+    static int stringLength(ByteBuffer buf, int offset) {
+        int len = buf.getInt(offset);
+        if (len < 0 || len > STRING_LEN)
+            throw new IllegalArgumentException("bad string length " + len + " at offset " + offset);
+        return len;
+    }
+
+  /**
+   * Copies len bytes starting at the absolute offset of buf into dst,
+   * without changing the position of buf.
+   */
+    static void getBytes(ByteBuffer buf, int offset, byte[] dst, int dstOffset, int len) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + offset, dst, dstOffset, len);
+        } else {
+            for (int i = 0; i < len; i++)
+                dst[dstOffset + i] = buf.get(offset + i);
+        }
+    }
+
+  /**
+   * @return a Field object of this type holding the value written in s, as it
+   *   appears in a text data file or a query constant.
+   * @param s The text to convert
+   * @throws NumberFormatException if s is not a valid value of a numeric type
+   */
+    public abstract Field fromString(String s);
+
+  /**
+   * @return the type called name in a schema ("int", "string", "long" or
+   *   "double"), or null if there is no such type.
+   */
+    public static Type forName(String name) {
+        switch (name.toLowerCase()) {
+        case "int":
+            return INT_TYPE;
+        case "string":
+            return STRING_TYPE;
+        case "long":
+            return LONG_TYPE;
+        case "double":
+            return DOUBLE_TYPE;
+        }
+        return null;
+    }
+
 }